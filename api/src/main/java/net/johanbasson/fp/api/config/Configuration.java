@@ -1,3 +1,8 @@
 package net.johanbasson.fp.api.config;
 
-public record Configuration(Database database, Server server, RabbitMq rabbitMq) { }
+public record Configuration(Database database, Server server, RabbitMq rabbitMq, Messaging messaging) {
+
+    public Configuration(Database database, Server server, RabbitMq rabbitMq) {
+        this(database, server, rabbitMq, new Messaging(Messaging.RABBITMQ));
+    }
+}
@@ -13,7 +13,22 @@ public class ConfigurationLoader {
         PropertiesConfiguration conf = configs.properties(new File(configFile));
         Database db = new Database(conf.getString("database.url"), conf.getString("database.username"), conf.getString("database.password"));
         Server server = new Server(conf.getInt("server.port"));
-        RabbitMq rabbitMq = new RabbitMq(conf.getString("rabbitmq.host"), conf.getInt("rabbitmq.port"), conf.getString("rabbitmq.username"), conf.getString("rabbitmq.password"));
-        return new Configuration(db, server, rabbitMq);
+        RabbitMq rabbitMq = new RabbitMq(conf.getString("rabbitmq.host"), conf.getInt("rabbitmq.port"), conf.getString("rabbitmq.username"), conf.getString("rabbitmq.password"),
+                conf.getInt("rabbitmq.confirm.window", RabbitMq.DEFAULT_CONFIRM_WINDOW),
+                conf.getInt("rabbitmq.channel.pool.size", RabbitMq.DEFAULT_CHANNEL_POOL_SIZE),
+                conf.getInt("rabbitmq.consumer.prefetch", RabbitMq.DEFAULT_PREFETCH),
+                conf.getInt("rabbitmq.consumer.ack.batch", RabbitMq.DEFAULT_ACK_BATCH_SIZE),
+                conf.getLong("rabbitmq.recovery.interval.ms", RabbitMq.DEFAULT_RECOVERY_INTERVAL_MILLIS));
+        Messaging messaging = new Messaging(conf.getString("queue.transport", Messaging.RABBITMQ),
+                conf.getInt("queue.memory.buffer.size", Messaging.DEFAULT_BUFFER_SIZE),
+                conf.getInt("queue.memory.prefetch", Messaging.DEFAULT_PREFETCH),
+                conf.getInt("queue.compression.threshold", Messaging.DEFAULT_COMPRESSION_THRESHOLD),
+                conf.getInt("queue.command.partitions", Messaging.DEFAULT_COMMAND_PARTITIONS),
+                conf.getInt("queue.event.batch.size", Messaging.DEFAULT_EVENT_BATCH_SIZE),
+                conf.getInt("queue.event.batch.bytes", Messaging.DEFAULT_EVENT_BATCH_BYTES),
+                conf.getLong("queue.event.linger.ms", Messaging.DEFAULT_EVENT_LINGER_MILLIS),
+                conf.getInt("queue.outbox.batch.size", Messaging.DEFAULT_OUTBOX_BATCH_SIZE),
+                conf.getLong("queue.outbox.poll.ms", Messaging.DEFAULT_OUTBOX_POLL_MILLIS));
+        return new Configuration(db, server, rabbitMq, messaging);
     }
 }
@@ -0,0 +1,36 @@
+package net.johanbasson.fp.api.config;
+
+/**
+ * @param transport {@link #RABBITMQ} or {@link #MEMORY}
+ * @param bufferSize number of messages each in-memory queue holds before publishers block
+ * @param prefetch maximum number of unacknowledged messages an in-memory queue's consumer receives
+ * @param compressionThreshold message payload size in bytes from which payloads are compressed, 0 to never compress
+ * @param commandPartitions number of queues commands are partitioned over
+ * @param eventBatchSize maximum number of events published in one message, 1 to publish every event on its own
+ * @param eventBatchBytes encoded size in bytes at which a batch of events is published before it is full
+ * @param eventLingerMillis how long an event waits for others to share its message
+ * @param outboxBatchSize maximum number of outbox events relayed in one message
+ * @param outboxPollMillis how often the outbox is checked for events to relay
+ */
+public record Messaging(String transport, int bufferSize, int prefetch, int compressionThreshold, int commandPartitions,
+                        int eventBatchSize, int eventBatchBytes, long eventLingerMillis,
+                        int outboxBatchSize, long outboxPollMillis) {
+
+    public static final String RABBITMQ = "rabbitmq";
+    public static final String MEMORY = "memory";
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    public static final int DEFAULT_PREFETCH = 256;
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 4096;
+    public static final int DEFAULT_COMMAND_PARTITIONS = 8;
+    public static final int DEFAULT_EVENT_BATCH_SIZE = 1;
+    public static final int DEFAULT_EVENT_BATCH_BYTES = 65536;
+    public static final long DEFAULT_EVENT_LINGER_MILLIS = 5;
+    public static final int DEFAULT_OUTBOX_BATCH_SIZE = 256;
+    public static final long DEFAULT_OUTBOX_POLL_MILLIS = 100;
+
+    public Messaging(String transport) {
+        this(transport, DEFAULT_BUFFER_SIZE, DEFAULT_PREFETCH, DEFAULT_COMPRESSION_THRESHOLD, DEFAULT_COMMAND_PARTITIONS,
+                DEFAULT_EVENT_BATCH_SIZE, DEFAULT_EVENT_BATCH_BYTES, DEFAULT_EVENT_LINGER_MILLIS,
+                DEFAULT_OUTBOX_BATCH_SIZE, DEFAULT_OUTBOX_POLL_MILLIS);
+    }
+}
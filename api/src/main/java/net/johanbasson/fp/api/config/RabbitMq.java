@@ -1,5 +1,22 @@
 package net.johanbasson.fp.api.config;
 
-public record RabbitMq(String host, int port, String username, String password) {
+/**
+ * @param confirmWindow maximum number of published messages awaiting the broker's confirm, per channel
+ * @param channelPoolSize number of channels each dispatcher publishes on
+ * @param prefetch maximum number of unacknowledged deliveries a worker receives
+ * @param ackBatchSize number of processed deliveries a worker acknowledges together
+ * @param recoveryIntervalMillis how long to wait between attempts to recover a lost connection
+ */
+public record RabbitMq(String host, int port, String username, String password, int confirmWindow, int channelPoolSize,
+                       int prefetch, int ackBatchSize, long recoveryIntervalMillis) {
 
+    public static final int DEFAULT_CONFIRM_WINDOW = 256;
+    public static final int DEFAULT_CHANNEL_POOL_SIZE = 8;
+    public static final int DEFAULT_PREFETCH = 64;
+    public static final int DEFAULT_ACK_BATCH_SIZE = 16;
+    public static final long DEFAULT_RECOVERY_INTERVAL_MILLIS = 5000;
+
+    public RabbitMq(String host, int port, String username, String password) {
+        this(host, port, username, password, DEFAULT_CONFIRM_WINDOW, DEFAULT_CHANNEL_POOL_SIZE, DEFAULT_PREFETCH, DEFAULT_ACK_BATCH_SIZE, DEFAULT_RECOVERY_INTERVAL_MILLIS);
+    }
 }
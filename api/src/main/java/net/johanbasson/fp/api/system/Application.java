@@ -9,31 +9,56 @@ import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
 import net.johanbasson.fp.api.config.Configuration;
 import net.johanbasson.fp.api.config.ConfigurationLoader;
+import net.johanbasson.fp.api.config.Messaging;
+import net.johanbasson.fp.api.system.commandbus.Bulkhead;
+import net.johanbasson.fp.api.system.commandbus.CoalescingMiddleware;
 import net.johanbasson.fp.api.system.commandbus.CommandBus;
 import net.johanbasson.fp.api.system.commandbus.CommandBusBuilder;
+import net.johanbasson.fp.api.system.commandbus.IdempotencyMiddleware;
+import net.johanbasson.fp.api.system.commandbus.MetricsMiddleware;
 import net.johanbasson.fp.api.system.events.EventPort;
 import net.johanbasson.fp.api.system.events.EventRepository;
 import net.johanbasson.fp.api.system.events.JdbcEventRepository;
+import net.johanbasson.fp.api.system.idempotency.JdbcIdempotencyStore;
+import net.johanbasson.fp.api.system.outbox.JdbcOutbox;
+import net.johanbasson.fp.api.system.outbox.OutboxRelay;
 import net.johanbasson.fp.api.system.queue.CommandDispatcher;
+import net.johanbasson.fp.api.system.queue.ConnectionHealth;
 import net.johanbasson.fp.api.system.queue.EventDispatcher;
+import net.johanbasson.fp.api.system.queue.MemoryTransport;
+import net.johanbasson.fp.api.system.queue.MessageCodec;
+import net.johanbasson.fp.api.system.queue.MessageTypeRegistry;
+import net.johanbasson.fp.api.system.queue.RabbitMqTransport;
+import net.johanbasson.fp.api.system.queue.RetryPolicy;
+import net.johanbasson.fp.api.system.queue.Transport;
+import net.johanbasson.fp.api.system.transaction.UnitOfWorkMiddleware;
 import net.johanbasson.fp.api.users.JdbcUserRepository;
 import net.johanbasson.fp.api.users.UserRepository;
+import net.johanbasson.fp.api.workspace.CreateWorkspaceCommand;
 import net.johanbasson.fp.api.workspace.JdbcWorkspaceRepository;
 import net.johanbasson.fp.api.workspace.WorkspaceCommandHandlers;
+import net.johanbasson.fp.api.workspace.WorkspaceCreatedEvent;
 import net.johanbasson.fp.api.workspace.WorkspaceRepository;
 import org.apache.commons.configuration2.ex.ConfigurationException;
 import org.flywaydb.core.Flyway;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.sql2o.Sql2o;
 
 import javax.crypto.SecretKey;
 import java.io.IOException;
 import java.security.Key;
+import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 
+import static java.lang.String.format;
+
 public class Application implements ApplicationContext {
 
     private static final SecretKey secretKey = Keys.secretKeyFor(SignatureAlgorithm.HS256);
+    private static final Duration IDEMPOTENCY_TTL = Duration.ofHours(24);
+    private static final RetryPolicy OUTBOX_RETRY = new RetryPolicy(Integer.MAX_VALUE, Duration.ofSeconds(1), Duration.ofMinutes(1));
 
     private final Sql2o sql2o;
     private final ObjectMapper objectMapper;
@@ -44,12 +69,19 @@ public class Application implements ApplicationContext {
     private final WorkspaceRepository workspaceRepository;
     private final EventPort eventPort;
     private final EventBus eventBus;
+    private final MetricsMiddleware commandMetrics;
+    private final CoalescingMiddleware commandCoalescing;
     private final CommandBus commandBus;
+    private final Transport transport;
+    private final MessageCodec messageCodec;
     private final EventDispatcher eventDispatcher;
     private final CommandDispatcher commandDispatcher;
+    private final OutboxRelay outboxRelay;
 
     public static Application initialize() throws ConfigurationException, IOException, TimeoutException {
-        return new Application();
+        Application application = new Application();
+        application.outboxRelay.start();
+        return application;
     }
 
     private Application() throws ConfigurationException, IOException, TimeoutException {
@@ -61,11 +93,23 @@ public class Application implements ApplicationContext {
         eventRepository = new JdbcEventRepository(sql2o);
         eventPort = new EventPort(eventRepository, objectMapper);
         eventBus = eventBus(eventPort);
-        eventDispatcher = new EventDispatcher(configuration);
-        commandDispatcher = new CommandDispatcher(configuration);
+        messageCodec = new MessageCodec(messageTypes(), configuration.messaging().compressionThreshold());
+        transport = transport(configuration.messaging());
+        eventDispatcher = new EventDispatcher(transport, messageCodec,
+                configuration.messaging().eventBatchSize(),
+                configuration.messaging().eventBatchBytes(),
+                Duration.ofMillis(configuration.messaging().eventLingerMillis()));
+        commandDispatcher = new CommandDispatcher(transport, messageCodec, configuration.messaging().commandPartitions());
 
         workspaceRepository = new JdbcWorkspaceRepository(sql2o);
-        commandBus = commandBus(new WorkspaceCommandHandlers(workspaceRepository, eventDispatcher));
+        commandMetrics = new MetricsMiddleware();
+        commandCoalescing = new CoalescingMiddleware();
+        JdbcOutbox outbox = new JdbcOutbox(sql2o, messageCodec);
+        outboxRelay = new OutboxRelay(outbox, eventDispatcher,
+                configuration.messaging().outboxBatchSize(),
+                Duration.ofMillis(configuration.messaging().outboxPollMillis()),
+                OUTBOX_RETRY);
+        commandBus = commandBus(new WorkspaceCommandHandlers(workspaceRepository, outbox));
     }
 
     private HikariDataSource getHikariDataSource(Configuration configuration) {
@@ -79,6 +123,23 @@ public class Application implements ApplicationContext {
         return ds;
     }
 
+    private Transport transport(Messaging messaging) throws IOException, TimeoutException {
+        switch (messaging.transport()) {
+            case Messaging.RABBITMQ:
+                return new RabbitMqTransport(configuration);
+            case Messaging.MEMORY:
+                return new MemoryTransport(messaging.bufferSize(), messaging.prefetch());
+            default:
+                throw new IllegalArgumentException(format("Unknown queue transport %s", messaging.transport()));
+        }
+    }
+
+    private static MessageTypeRegistry messageTypes() {
+        return new MessageTypeRegistry(new ObjectMapper(new MessagePackFactory()))
+                .register(Constants.MessageTypes.CREATE_WORKSPACE, CreateWorkspaceCommand.class)
+                .register(Constants.MessageTypes.WORKSPACE_CREATED, WorkspaceCreatedEvent.class);
+    }
+
     private EventBus eventBus(EventPort eventPort) {
         EventBus eventBus = new AsyncEventBus(Executors.newCachedThreadPool());
         eventBus.register(eventPort);
@@ -87,12 +148,27 @@ public class Application implements ApplicationContext {
 
     private CommandBus commandBus(WorkspaceCommandHandlers workspaceCommandHandlers) {
         return new CommandBusBuilder()
-                .executorService(Executors.newCachedThreadPool())
+                .virtualThreads()
+                .registerMiddleware(commandMetrics)
+                .registerMiddleware(commandCoalescing)
+                .registerMiddleware(new UnitOfWorkMiddleware(sql2o))
+                .registerMiddleware(new IdempotencyMiddleware(new JdbcIdempotencyStore(sql2o, objectMapper, IDEMPOTENCY_TTL, List.of())))
+                .admissionControl(new Bulkhead("commands", 256, 1024, Bulkhead.RejectionPolicy.ABORT))
+                .bulkhead(new Bulkhead(WorkspaceCommandHandlers.BULKHEAD, 32, 256, Bulkhead.RejectionPolicy.ABORT))
                 .registerCommandHandler(workspaceCommandHandlers)
                 .build();
     }
 
     public void shutdown() {
+        commandBus.close();
+        commandMetrics.close();
+        try {
+            outboxRelay.close();
+            eventDispatcher.close();
+            transport.close();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to close queue transport", e);
+        }
         dataSource.close();
     }
 
@@ -101,6 +177,21 @@ public class Application implements ApplicationContext {
         return commandBus;
     }
 
+    @Override
+    public MetricsMiddleware getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    @Override
+    public CoalescingMiddleware getCommandCoalescing() {
+        return commandCoalescing;
+    }
+
+    @Override
+    public List<ConnectionHealth> getQueueHealth() {
+        return transport.health();
+    }
+
     @Override
     public UserRepository getUserRepository() {
         return userRepository;
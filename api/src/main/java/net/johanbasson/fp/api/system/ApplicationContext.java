@@ -1,12 +1,16 @@
 package net.johanbasson.fp.api.system;
 
 import net.johanbasson.fp.api.config.Configuration;
+import net.johanbasson.fp.api.system.commandbus.CoalescingMiddleware;
 import net.johanbasson.fp.api.system.commandbus.CommandBus;
+import net.johanbasson.fp.api.system.commandbus.MetricsMiddleware;
+import net.johanbasson.fp.api.system.queue.ConnectionHealth;
 import net.johanbasson.fp.api.users.UserRepository;
 import net.johanbasson.fp.api.workspace.WorkspaceRepository;
 import org.sql2o.Sql2o;
 
 import java.security.Key;
+import java.util.List;
 
 public interface ApplicationContext {
 
@@ -18,6 +22,12 @@ public interface ApplicationContext {
 
     CommandBus getCommandBus();
 
+    MetricsMiddleware getCommandMetrics();
+
+    CoalescingMiddleware getCommandCoalescing();
+
+    List<ConnectionHealth> getQueueHealth();
+
     UserRepository getUserRepository();
 
     Key getSecretKey();
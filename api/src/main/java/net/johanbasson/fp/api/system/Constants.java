@@ -5,5 +5,22 @@ public interface Constants {
     interface Queues {
         String COMMANDS = "commands";
         String EVENTS = "events";
+        String COMMANDS_DEAD_LETTER = "commands.dead-letter";
+        String EVENTS_DEAD_LETTER = "events.dead-letter";
+
+        /**
+         * @return name of the command queue holding partition {@code partition}
+         */
+        static String commandPartition(int partition) {
+            return COMMANDS + "." + partition;
+        }
+    }
+
+    /**
+     * Ids of the messages sent through the queues. Never change or reuse an id.
+     */
+    interface MessageTypes {
+        int CREATE_WORKSPACE = 1;
+        int WORKSPACE_CREATED = 2;
     }
 }
@@ -0,0 +1,29 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+
+/**
+ * Is used to mark method as <em>BatchCommandHandler</em>
+ * which then can be registered in BusBuilder with {@link CommandBusBuilder#registerCommandHandler(Object)}
+ *
+ * <p> Each method annotated with {@link BatchCommandHandler}
+ * should have a {@code List<C>} of <em>Commands</em> as its first parameter.
+ * {@link CommandBus#executeBatch(java.util.List)} passes all <em>Commands</em> of type {@code C}
+ * in one call. Other params are supplied by {@link Provider}.
+ *
+ * <p>The method either returns {@code void} or a {@code List} with one result per <em>Command</em>,
+ * in the order the <em>Commands</em> were passed in.
+ *
+ * <p>There should be <b>at most one</b> <em>BatchCommandHandler</em> for each <em>Command</em>.
+ * <em>Commands</em> without one are executed one by one by their {@link CommandHandler}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(value = METHOD)
+public @interface BatchCommandHandler {
+}
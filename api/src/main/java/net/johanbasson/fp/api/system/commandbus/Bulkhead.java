@@ -0,0 +1,238 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+
+/**
+ * Limits how many asynchronous <em>Commands</em> of the types assigned to it run at the same time,
+ * so a burst of slow commands of one type can't starve the executor for every other type.
+ *
+ * <p>Up to {@code maxConcurrency} commands are handed to the executor. Up to {@code maxQueueSize}
+ * more wait in a queue and are handed over as running commands complete. What happens to commands
+ * beyond that is decided by the {@link RejectionPolicy}.
+ *
+ * <p>Command types are assigned with {@link CommandBusBuilder#assignBulkhead(Class, String)}
+ * or {@link CommandHandler#bulkhead()}. The bulkhead set with {@link CommandBusBuilder#admissionControl(Bulkhead)}
+ * limits all other command types together.
+ */
+public final class Bulkhead {
+
+    public enum RejectionPolicy {
+        /** Complete the command's future with a {@link CommandRejectedException}. */
+        ABORT,
+        /** Run the command on the caller's thread, outside of the bulkhead's limits. */
+        CALLER_RUNS,
+        /**
+         * Block the caller until there is room, for at most the bulkhead's block timeout,
+         * then complete the command's future with a {@link CommandRejectedException}.
+         */
+        BLOCK
+    }
+
+    private final String name;
+    private final int maxConcurrency;
+    private final int maxQueueSize;
+    private final RejectionPolicy rejectionPolicy;
+    private final long blockTimeoutNanos;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Task<?>> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger blocked = new AtomicInteger();
+    private final Object capacity = new Object();
+
+    public Bulkhead(String name, int maxConcurrency, int maxQueueSize, RejectionPolicy rejectionPolicy) {
+        this(name, maxConcurrency, maxQueueSize, rejectionPolicy, Duration.ZERO);
+    }
+
+    /**
+     * @param blockTimeout how long callers wait for room under {@link RejectionPolicy#BLOCK}
+     */
+    public Bulkhead(String name, int maxConcurrency, int maxQueueSize, RejectionPolicy rejectionPolicy, Duration blockTimeout) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException(format("Bulkhead %s requires a max concurrency of at least 1", name));
+        }
+        if (maxQueueSize < 0) {
+            throw new IllegalArgumentException(format("Bulkhead %s requires a non-negative queue size", name));
+        }
+        if (blockTimeout.isNegative()) {
+            throw new IllegalArgumentException(format("Bulkhead %s requires a non-negative block timeout", name));
+        }
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueueSize = maxQueueSize;
+        this.rejectionPolicy = rejectionPolicy;
+        this.blockTimeoutNanos = blockTimeout.toNanos();
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int maxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * @return number of commands currently handed to the executor
+     */
+    public int activeCount() {
+        return active.get();
+    }
+
+    /**
+     * @return number of commands waiting for a running command to complete
+     */
+    public int queueDepth() {
+        return queued.get();
+    }
+
+    <R> CompletableFuture<R> submit(Supplier<R> command, Executor executor) {
+        Task<R> task = new Task<>(command, executor);
+
+        if (tryAcquire()) {
+            dispatch(task);
+        } else if (tryEnqueue(task)) {
+            drain();
+        } else if (rejectionPolicy == RejectionPolicy.CALLER_RUNS) {
+            task.run(command);
+        } else if (rejectionPolicy == RejectionPolicy.BLOCK) {
+            awaitCapacity(task);
+        } else {
+            task.future.completeExceptionally(new CommandRejectedException(format("Bulkhead %s is full", name)));
+        }
+
+        return task.future;
+    }
+
+    private void awaitCapacity(Task<?> task) {
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        blocked.incrementAndGet();
+        try {
+            while (true) {
+                if (tryAcquire()) {
+                    dispatch(task);
+                    return;
+                }
+                if (tryEnqueue(task)) {
+                    drain();
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    task.future.completeExceptionally(new CommandRejectedException(format("Bulkhead %s is full, timed out waiting for room", name)));
+                    return;
+                }
+                synchronized (capacity) {
+                    if (active.get() >= maxConcurrency && queued.get() >= maxQueueSize) {
+                        TimeUnit.NANOSECONDS.timedWait(capacity, remaining);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            task.future.completeExceptionally(new CommandRejectedException(format("Interrupted waiting for room in bulkhead %s", name), e));
+        } finally {
+            blocked.decrementAndGet();
+        }
+    }
+
+    private void signalCapacity() {
+        if (blocked.get() > 0) {
+            synchronized (capacity) {
+                capacity.notifyAll();
+            }
+        }
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = active.get();
+            if (current >= maxConcurrency) {
+                return false;
+            }
+        } while (!active.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private boolean tryEnqueue(Task<?> task) {
+        int current;
+        do {
+            current = queued.get();
+            if (current >= maxQueueSize) {
+                return false;
+            }
+        } while (!queued.compareAndSet(current, current + 1));
+        waiting.add(task);
+        return true;
+    }
+
+    private void release() {
+        active.decrementAndGet();
+        drain();
+        signalCapacity();
+    }
+
+    private void drain() {
+        while (!waiting.isEmpty() && tryAcquire()) {
+            Task<?> next = waiting.poll();
+            if (next == null) {
+                active.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            dispatch(next);
+        }
+    }
+
+    private void dispatch(Task<?> task) {
+        try {
+            task.executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(new CommandRejectedException(format("Executor of bulkhead %s rejected the command", name), e));
+            release();
+        }
+    }
+
+    private final class Task<R> implements Runnable {
+        private final Supplier<R> command;
+        private final Executor executor;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        Task(Supplier<R> command, Executor executor) {
+            this.command = command;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                run(command);
+            } finally {
+                release();
+            }
+        }
+
+        void run(Supplier<R> command) {
+            try {
+                future.complete(command.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
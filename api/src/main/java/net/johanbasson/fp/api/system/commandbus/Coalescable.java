@@ -0,0 +1,16 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+/**
+ * <em>Command</em> that may share its execution with identical <em>Commands</em> in flight at the
+ * same time. With {@link CoalescingMiddleware} registered, concurrent <em>Commands</em> of the same
+ * type and {@link #coalescingKey() key} are executed once and every caller gets that result.
+ *
+ * <p>Meant for read <em>Commands</em>: a caller may get a result computed from a state older than its call.
+ */
+public interface Coalescable {
+
+    /**
+     * @return key identifying what the <em>Command</em> reads, with {@code equals} and {@code hashCode}
+     */
+    Object coalescingKey();
+}
@@ -0,0 +1,88 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Single-flight execution of {@link Coalescable} <em>Commands</em>: while a <em>Command</em> is
+ * executing, identical ones wait for it and get its result or exception instead of being
+ * executed themselves. Nothing is kept once the execution completes.
+ *
+ * <p>Only applies to <em>Command</em> types implementing {@link Coalescable}. Register it before
+ * <em>Middleware</em> that does work per execution, such as opening a transaction, so that
+ * coalesced <em>Commands</em> skip it too.
+ */
+public class CoalescingMiddleware implements Middleware {
+
+    private final Map<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    @Override
+    public <R> R execute(Object command, Function<Object, R> next) {
+        if (!(command instanceof Coalescable)) {
+            return next.apply(command);
+        }
+
+        Key key = new Key(command.getClass(), ((Coalescable) command).coalescingKey());
+        CompletableFuture<Object> execution = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, execution);
+        if (running != null) {
+            coalesced.increment();
+            return await(running);
+        }
+
+        executed.increment();
+        try {
+            R result = next.apply(command);
+            execution.complete(result);
+            return result;
+        } catch (Throwable e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, execution);
+        }
+    }
+
+    @Override
+    public boolean appliesTo(Class<?> commandType) {
+        return Coalescable.class.isAssignableFrom(commandType);
+    }
+
+    /**
+     * @return number of {@link Coalescable} <em>Commands</em> that were executed
+     */
+    public long executedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * @return number of {@link Coalescable} <em>Commands</em> that got the result of another execution
+     */
+    public long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> R await(CompletableFuture<Object> running) {
+        try {
+            return (R) running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private record Key(Class<?> type, Object key) {
+    }
+}
@@ -0,0 +1,10 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.util.List;
+
+/**
+ * <em>Commands</em> of one type sent through the {@link Middleware} chain together,
+ * on their way to a {@link BatchCommandHandler}.
+ */
+public record CommandBatch(Class<?> commandType, List<?> commands) {
+}
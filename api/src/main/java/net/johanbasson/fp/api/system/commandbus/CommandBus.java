@@ -1,6 +1,24 @@
 package net.johanbasson.fp.api.system.commandbus;
 
+import cyclops.control.Future;
+import cyclops.reactive.IO;
+import cyclops.reactive.Spouts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
 
 /**
  * Bus routes Commands(POJO) to appropriate <em>CommandHandler</em>(class methods annotated with {@link CommandHandler}).
@@ -8,13 +26,46 @@ import java.util.function.Function;
  * with value provided by <em>ValueProvider</em>(class methods annotated with {@link Provider})
  *
  * <p>Every Command will first go through chain of {@link Middleware}.
+ *
+ * <p>{@link #execute(Object)} always runs on the caller's thread. {@link #executeAsync(Object)}
+ * and {@link #executeIO(Object)} run the whole chain, <em>Middleware</em> included, on the
+ * executor configured with {@link CommandBusBuilder#executorService} or
+ * {@link CommandBusBuilder#virtualThreads()}, or on the caller's thread if there is none.
+ * Asynchronous executions of <em>Commands</em> assigned to a {@link Bulkhead} are limited by it,
+ * all others by the {@link CommandBusBuilder#admissionControl(Bulkhead) admission control} bulkhead if there is one.
+ *
+ * <p>{@link #executeBatch(List)} hands <em>Commands</em> of one type to their {@link BatchCommandHandler} together.
  */
-public class CommandBus {
+public class CommandBus implements AutoCloseable {
 
     private final Function<Object, Object> commandProcessor;
+    private final Executor executor;
+    private final Map<Class, Bulkhead> bulkheads;
+    private final Bulkhead admission;
+    private final ClassValue<Bulkhead> bulkheadsByClass;
+    private final ClassValue<Boolean> batchCommandClasses;
+    private final Runnable onClose;
 
-    CommandBus(Function<Object, Object> commandProcessor) {
+    CommandBus(Function<Object, Object> commandProcessor, Executor executor, Map<Class, Bulkhead> bulkheads, Bulkhead admission, Set<Class> batchCommandTypes, Runnable onClose) {
         this.commandProcessor = commandProcessor;
+        this.executor = executor;
+        this.bulkheads = bulkheads;
+        this.admission = admission;
+        this.bulkheadsByClass = new ClassValue<>() {
+            @Override
+            protected Bulkhead computeValue(Class<?> type) {
+                Bulkhead bulkhead = TypeHierarchy.resolve(bulkheads, type);
+                return bulkhead != null ? bulkhead : admission;
+            }
+        };
+        Map<Class, Boolean> batchTypes = batchCommandTypes.stream().collect(Collectors.toMap(type -> type, type -> Boolean.TRUE));
+        this.batchCommandClasses = new ClassValue<>() {
+            @Override
+            protected Boolean computeValue(Class<?> type) {
+                return TypeHierarchy.resolve(batchTypes, type) != null;
+            }
+        };
+        this.onClose = onClose;
     }
 
     /**
@@ -28,4 +79,105 @@ public class CommandBus {
         return (R) commandProcessor.apply(command);
     }
 
+    /**
+     * Synchronous execution of many commands at once.
+     *
+     * <p>Commands are grouped by type. Each group with a {@link BatchCommandHandler} goes through the
+     * chain of {@link Middleware} once, as a {@link CommandBatch}, and is handled in a single call.
+     * Commands of other types are executed one by one, as by {@link #execute(Object)}.
+     * @param commands Commands to be sent for execution
+     * @return results in the order the commands were submitted, {@code null} for void handlers
+     * @throws IllegalStateException containing original cause, or if a batch handler returns
+     * a different number of results than it was given commands
+     */
+    public <R> List<R> executeBatch(List<?> commands) {
+        Map<Class, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < commands.size(); i++) {
+            groups.computeIfAbsent(commands.get(i).getClass(), type -> new ArrayList<>()).add(i);
+        }
+
+        Object[] results = new Object[commands.size()];
+        groups.forEach((type, indexes) -> {
+            if (!batchCommandClasses.get(type)) {
+                indexes.forEach(index -> results[index] = execute(commands.get(index)));
+                return;
+            }
+
+            List<Object> batch = new ArrayList<>(indexes.size());
+            indexes.forEach(index -> batch.add(commands.get(index)));
+            Object batchResult = commandProcessor.apply(new CommandBatch(type, Collections.unmodifiableList(batch)));
+            if (batchResult == null) {
+                return;
+            }
+
+            List<?> batchResults = (List<?>) batchResult;
+            if (batchResults.size() != indexes.size()) {
+                throw new IllegalStateException(format("Batch command handler for command %s returned %d results for %d commands",
+                        type.getName(),
+                        batchResults.size(),
+                        indexes.size()));
+            }
+            for (int i = 0; i < indexes.size(); i++) {
+                results[indexes.get(i)] = batchResults.get(i);
+            }
+        });
+
+        //noinspection unchecked
+        return (List<R>) Arrays.asList(results);
+    }
+
+    /**
+     * Asynchronous command execution.
+     * @param command Command to be sent for execution
+     * @return future completed with the result of CommandHandler method execution,
+     * or completed exceptionally with the exception {@link #execute(Object)} would throw,
+     * or with a {@link CommandRejectedException} if the command's {@link Bulkhead}, or the bus's
+     * {@link CommandBusBuilder#admissionControl(Bulkhead) admission control}, is full
+     */
+    public <R> CompletableFuture<R> executeAsync(Object command) {
+        Bulkhead bulkhead = bulkheadsByClass.get(command.getClass());
+        if (bulkhead != null) {
+            return bulkhead.submit(() -> execute(command), executor == null ? Runnable::run : executor);
+        }
+        if (executor == null) {
+            try {
+                return CompletableFuture.completedFuture(execute(command));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.supplyAsync(() -> execute(command), executor);
+    }
+
+    /**
+     * Lazy command execution, the command is executed every time the returned IO is run.
+     * @param command Command to be sent for execution
+     * @return IO of the result of CommandHandler method execution
+     */
+    public <R> IO<R> executeIO(Object command) {
+        return IO.fromPublisher(Spouts.defer(() -> Future.of(this.<R>executeAsync(command))));
+    }
+
+    /**
+     * @return the bulkheads commands are assigned to and the admission control bulkhead,
+     * to monitor their active count and queue depth
+     */
+    public Collection<Bulkhead> bulkheads() {
+        Collection<Bulkhead> all = new LinkedHashSet<>(bulkheads.values());
+        if (admission != null) {
+            all.add(admission);
+        }
+        return all;
+    }
+
+    /**
+     * Releases values of {@link Provider.Scope#SINGLETON} and {@link Provider.Scope#PER_THREAD}
+     * providers that implement {@link AutoCloseable}, and shuts down the executor created
+     * by {@link CommandBusBuilder#virtualThreads()}.
+     */
+    @Override
+    public void close() {
+        onClose.run();
+    }
+
 }
@@ -1,12 +1,14 @@
 package net.johanbasson.fp.api.system.commandbus;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.stream.Collectors;
 
 import static java.lang.String.format;
 
@@ -27,21 +29,35 @@ import static java.lang.String.format;
  * <em>ValueProvider</em> is just a class, having one or more methods
  * annotated with {@link Provider}
  *
+ * <p>Handlers and providers are looked up in the {@link CommandRoutes} tables generated
+ * at compile time. Only classes without a generated table are scanned with reflection.
+ *
+ * <p>A <em>CommandHandler</em> may handle a superclass or interface of the <em>Commands</em>
+ * it receives, the handler for the closest type wins. See {@link TypeHierarchy}.
+ *
  * <p><em>Middleware</em> should implement interface {@link Middleware}
  * <em>Middleware</em> are executed in order. So having
  * BusBuilder.registerMiddleware(m1).registerMiddleware(m2)
  * on <em>Command</em> execution there could be such sequence:
  * m1.pre -> m2.pre -> m2.post -> m1.post
+ * A <em>Command</em> only goes through the <em>Middleware</em> that
+ * {@link Middleware#appliesTo(Class) applies} to its type; the chain for each
+ * type is computed once, when the first <em>Command</em> of that type is executed.
  *
  *
  */
 public class CommandBusBuilder {
 
-    private final LinkedList<Middleware> middlewareList = new LinkedList<>();
+    private final List<Middleware> middlewareList = new ArrayList<>();
 
     private final List<Object> commandHandlerCandidates = new ArrayList<>();
     private final List<Object> valueProviderCandidates = new ArrayList<>();
+    private final Map<String, Bulkhead> bulkheads = new LinkedHashMap<>();
+    private final Map<Class, String> bulkheadAssignments = new HashMap<>();
+    private Bulkhead admission;
     private ExecutorService executorService;
+    private boolean ownsExecutorService;
+    private boolean threadPerTask;
 
     public CommandBusBuilder registerCommandHandler(Object commandHandler) {
         commandHandlerCandidates.add(commandHandler);
@@ -54,27 +70,118 @@ public class CommandBusBuilder {
     }
 
     public CommandBusBuilder registerMiddleware(Middleware middleware) {
-        middlewareList.addFirst(middleware);
+        middlewareList.add(middleware);
         return this;
     }
 
+    /**
+     * Executor used by {@link CommandBus#executeAsync(Object)} and {@link CommandBus#executeIO(Object)}.
+     * The caller remains responsible for shutting it down.
+     */
     public CommandBusBuilder executorService(ExecutorService executorService) {
         this.executorService = executorService;
+        this.ownsExecutorService = false;
+        this.threadPerTask = false;
+        return this;
+    }
+
+    /**
+     * Like {@link #executorService(ExecutorService)}, for an executor that starts a new thread for
+     * every task. Values of {@link Provider.Scope#PER_THREAD} providers are released when each
+     * task completes, as its thread won't run another one.
+     */
+    public CommandBusBuilder threadPerTaskExecutor(ExecutorService executorService) {
+        this.executorService = executorService;
+        this.ownsExecutorService = false;
+        this.threadPerTask = true;
+        return this;
+    }
+
+    /**
+     * Runs asynchronous commands on a new virtual thread each, so handlers blocking on
+     * JDBC or AMQP calls don't tie up platform threads. The executor is shut down by
+     * {@link CommandBus#close()}.
+     *
+     * <p>On runtimes without virtual threads a fixed pool of platform threads is used instead.
+     */
+    public CommandBusBuilder virtualThreads() {
+        this.executorService = VirtualThreads.newExecutor();
+        this.ownsExecutorService = true;
+        this.threadPerTask = VirtualThreads.available();
+        return this;
+    }
+
+    public CommandBusBuilder bulkhead(Bulkhead bulkhead) {
+        bulkheads.put(bulkhead.name(), bulkhead);
+        return this;
+    }
+
+    /**
+     * Bounds asynchronous executions of every <em>Command</em> not assigned to another {@link Bulkhead},
+     * so under overload work queued for the executor can't grow without limit. Its
+     * {@link Bulkhead.RejectionPolicy} decides whether excess <em>Commands</em> are rejected,
+     * run on the caller's thread or make the caller wait.
+     */
+    public CommandBusBuilder admissionControl(Bulkhead admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    /**
+     * Limits asynchronous executions of {@code commandType} by the named {@link Bulkhead},
+     * overriding {@link net.johanbasson.fp.api.system.commandbus.CommandHandler#bulkhead()}.
+     */
+    public CommandBusBuilder assignBulkhead(Class<?> commandType, String bulkheadName) {
+        bulkheadAssignments.put(commandType, bulkheadName);
         return this;
     }
 
     public CommandBus build() {
-        return new CommandBus(middlewareList.stream()
-                .reduce((Function<Object, Object>) new CommandExecutor(buildHandlersMapping(this.commandHandlerCandidates, buildProviderMapping(this.valueProviderCandidates)), executorService),
-                        (f, m) -> command -> m.execute(command, f),
-                        (f1, f2) -> f2));
+        Map<Class, Map<String, ValueProvider>> providerMapping = buildProviderMapping(this.valueProviderCandidates);
+        List<ValueProvider> providers = providerMapping.values().stream()
+                .flatMap(named -> named.values().stream())
+                .collect(Collectors.toList());
+        Map<Class, CommandHandler> handlersMapping = buildHandlersMapping(this.commandHandlerCandidates, providerMapping, CommandHandlerFactory::create);
+        Map<Class, CommandHandler> batchHandlersMapping = buildHandlersMapping(this.commandHandlerCandidates, providerMapping, CommandHandlerFactory::createBatch);
+        ExecutorService ownedExecutorService = ownsExecutorService ? executorService : null;
+        Executor executor = threadPerTask ? releasingPerThreadValues(executorService, providers) : executorService;
+
+        return new CommandBus(new CommandRouter(middlewareList, handlersMapping, batchHandlersMapping),
+                executor,
+                buildBulkheadMapping(handlersMapping),
+                admission,
+                batchHandlersMapping.keySet(),
+                () -> {
+                    if (ownedExecutorService != null) {
+                        ownedExecutorService.shutdown();
+                    }
+                    providers.forEach(ValueProvider::close);
+                });
     }
 
-    private Map<Class, CommandHandler> buildHandlersMapping(List<Object> commandHandlerCandidates, Map<Class, Map<String, ValueProvider>> valueProvidersMapping) {
+    private static Executor releasingPerThreadValues(Executor executor, List<ValueProvider> providers) {
+        List<ValueProvider> perThread = providers.stream()
+                .filter(provider -> provider.scope == Provider.Scope.PER_THREAD)
+                .collect(Collectors.toList());
+        if (perThread.isEmpty()) {
+            return executor;
+        }
+        return task -> executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                perThread.forEach(ValueProvider::releaseCurrentThread);
+            }
+        });
+    }
+
+    private Map<Class, CommandHandler> buildHandlersMapping(List<Object> commandHandlerCandidates,
+                                                            Map<Class, Map<String, ValueProvider>> valueProvidersMapping,
+                                                            BiFunction<Object, Map<Class, Map<String, ValueProvider>>, List<CommandHandlerFactory.Tuple<Class, CommandHandler>>> factory) {
         Map<Class, CommandHandler> handlerMap = new HashMap<>();
 
         commandHandlerCandidates.stream()
-                .flatMap(candidate -> CommandHandlerFactory.create(candidate, valueProvidersMapping).stream())
+                .flatMap(candidate -> factory.apply(candidate, valueProvidersMapping).stream())
                 .forEach(handlerTuple -> {
                     Class CommandClass = handlerTuple.getFirst();
                     CommandHandler commandHandler = handlerTuple.getSecond();
@@ -92,6 +199,26 @@ public class CommandBusBuilder {
         return handlerMap;
     }
 
+    private Map<Class, Bulkhead> buildBulkheadMapping(Map<Class, CommandHandler> handlersMapping) {
+        Map<Class, Bulkhead> bulkheadMap = new HashMap<>();
+
+        handlersMapping.forEach((commandClass, commandHandler) -> {
+            String bulkheadName = bulkheadAssignments.getOrDefault(commandClass, commandHandler.bulkhead);
+            if (bulkheadName.isEmpty()) {
+                return;
+            }
+            Bulkhead bulkhead = bulkheads.get(bulkheadName);
+            if (bulkhead == null) {
+                throw new IllegalStateException(format("Command %s is assigned to bulkhead %s, but no such bulkhead is registered",
+                        commandClass.getName(),
+                        bulkheadName));
+            }
+            bulkheadMap.put(commandClass, bulkhead);
+        });
+
+        return bulkheadMap;
+    }
+
     private Map<Class, Map<String, ValueProvider>> buildProviderMapping(List<Object> valueProviderCandidates) {
         Map<Class, Map<String, ValueProvider>> providerMap = new HashMap<>();
 
@@ -117,59 +244,200 @@ public class CommandBusBuilder {
         return providerMap;
     }
 
-    private static final class CommandExecutor implements Function<Object, Object> {
-        private final Map<Class, CommandHandler> commandHandlers;
-        private final ExecutorService executorService;
+    /**
+     * Routes each <em>Command</em> to the chain for its class, computed the first time the class is
+     * seen and cached in a {@link ClassValue}. A chain ends in the handler registered for the closest
+     * type in the class's {@link TypeHierarchy}. Classes without one go straight to the
+     * {@link MissingHandler}, which reports them, skipping the <em>Middleware</em>, so no
+     * transaction, idempotency key or metric is spent on a <em>Command</em> that can't be handled.
+     */
+    private static final class CommandRouter implements Function<Object, Object> {
+        private final ClassValue<Function<Object, Object>> chains;
+        private final ClassValue<Function<Object, Object>> batchChains;
+
+        CommandRouter(List<Middleware> middleware, Map<Class, CommandHandler> handlers, Map<Class, CommandHandler> batchHandlers) {
+            Function<Object, Object> fallback = new MissingHandler();
+            this.chains = new ClassValue<>() {
+                @Override
+                protected Function<Object, Object> computeValue(Class<?> type) {
+                    CommandHandler handler = TypeHierarchy.resolve(handlers, type);
+                    return handler == null ? fallback : chain(middleware, type, handler::invoke);
+                }
+            };
+            this.batchChains = new ClassValue<>() {
+                @Override
+                protected Function<Object, Object> computeValue(Class<?> type) {
+                    CommandHandler handler = TypeHierarchy.resolve(batchHandlers, type);
+                    return handler == null ? fallback : chain(middleware, type, batch -> handler.invoke(((CommandBatch) batch).commands()));
+                }
+            };
+        }
 
-        CommandExecutor(Map<Class, CommandHandler> commandHandlers, ExecutorService executorService) {
-            this.commandHandlers = commandHandlers;
-            this.executorService = executorService;
+        private static Function<Object, Object> chain(List<Middleware> middleware, Class<?> type, Function<Object, Object> handler) {
+            return new MiddlewareChain(middleware.stream()
+                    .filter(m -> m.appliesTo(type))
+                    .collect(Collectors.toList()),
+                    handler);
         }
 
         @Override
         public Object apply(Object command) {
-            CommandHandler commandHandler = commandHandlers.get(command.getClass());
-            if (commandHandler == null) {
-                throw new IllegalStateException(format("Command handler for command %s not found.", command.getClass().getName()));
-            }
+            return command instanceof CommandBatch
+                    ? batchChains.get(((CommandBatch) command).commandType()).apply(command)
+                    : chains.get(command.getClass()).apply(command);
+        }
+    }
 
-            if (executorService == null) {
-                return commandHandler.invoke(command);
-            } else {
-                return CompletableFuture.supplyAsync(() -> commandHandler.invoke(command), executorService);
+    /**
+     * Flat chain of the <em>Middleware</em> applying to one <em>Command</em> type, built once.
+     * Link {@code i} calls middleware {@code i} with link {@code i + 1} as its continuation;
+     * the last link is the handler. Executing a <em>Command</em> allocates nothing.
+     */
+    private static final class MiddlewareChain implements Function<Object, Object> {
+        private final Middleware[] middleware;
+        private final Function<Object, Object>[] links;
+
+        @SuppressWarnings("unchecked")
+        MiddlewareChain(List<Middleware> middleware, Function<Object, Object> handler) {
+            this.middleware = middleware.toArray(new Middleware[0]);
+            this.links = new Function[this.middleware.length + 1];
+            links[this.middleware.length] = handler;
+            for (int i = this.middleware.length - 1; i >= 0; i--) {
+                int index = i;
+                links[i] = command -> this.middleware[index].execute(command, links[index + 1]);
             }
         }
+
+        @Override
+        public Object apply(Object command) {
+            return links[0].apply(command);
+        }
     }
 
-    static final class CommandHandler {
-        private final Object target;
-        private final Method method;
-        private final List<ValueProvider> providers;
+    private static final class MissingHandler implements Function<Object, Object> {
 
-        CommandHandler(Object target, Method method, List<ValueProvider> providers) {
-            this.target = target;
-            this.method = method;
-            this.providers = providers;
+        @Override
+        public Object apply(Object command) {
+            if (command instanceof CommandBatch) {
+                throw new IllegalStateException(format("Batch command handler for command %s not found.", ((CommandBatch) command).commandType().getName()));
+            }
+
+            throw new IllegalStateException(format("Command handler for command %s not found.", command.getClass().getName()));
+        }
+    }
+
+    static final class CommandHandler implements CommandRoutes.Arguments {
+        private final Invokers.HandlerInvoker invoker;
+        private final ValueProvider[] providers;
+        private final int[] commandScopeSlots;
+        private final int commandScopeSize;
+        private final String bulkhead;
+
+        CommandHandler(Invokers.HandlerInvoker invoker, List<ValueProvider> providers, String bulkhead) {
+            this.invoker = invoker;
+            this.bulkhead = bulkhead;
+            this.providers = providers.toArray(new ValueProvider[0]);
+            this.commandScopeSlots = new int[this.providers.length];
+
+            List<ValueProvider> commandScoped = new ArrayList<>();
+            for (int i = 0; i < this.providers.length; i++) {
+                ValueProvider provider = this.providers[i];
+                if (provider.scope != Provider.Scope.PER_COMMAND) {
+                    commandScopeSlots[i] = -1;
+                    continue;
+                }
+                if (!commandScoped.contains(provider)) {
+                    commandScoped.add(provider);
+                }
+                commandScopeSlots[i] = commandScoped.indexOf(provider);
+            }
+            this.commandScopeSize = commandScoped.size();
         }
 
         Object invoke(Object cmd) {
+            if (commandScopeSize == 0) {
+                return invoke(cmd, this);
+            }
+
+            CommandScope scope = new CommandScope(this);
+            RuntimeException failure = null;
             try {
-                return method.invoke(target, buildParams(cmd));
-            } catch (InvocationTargetException e) {
-                if (e.getCause() instanceof RuntimeException) {
-                    throw (RuntimeException) e.getCause();
-                }
-                throw new IllegalStateException(e);
-            } catch (IllegalAccessException e) {
-                throw new IllegalStateException(e);
+                return invoke(cmd, scope);
+            } catch (RuntimeException e) {
+                failure = e;
+                throw e;
+            } finally {
+                scope.close(failure);
             }
         }
 
-        private Object[] buildParams(Object cmd) {
-            return Stream.concat(Arrays.stream(new Object[]{cmd}), providers.stream().map(ValueProvider::invoke))
-                    .toArray(Object[]::new);
+        private Object invoke(Object cmd, CommandRoutes.Arguments arguments) {
+            try {
+                return invoker.invoke(cmd, arguments);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(new InvocationTargetException(e));
+            }
+        }
+
+        @Override
+        public Object get(int index) {
+            return providers[index].get();
+        }
+
+    }
+
+    /**
+     * Values of {@link Provider.Scope#PER_COMMAND} providers, resolved at most once
+     * for a single <em>CommandHandler</em> invocation and released when it completes.
+     */
+    static final class CommandScope implements CommandRoutes.Arguments {
+        private final CommandHandler handler;
+        private final Object[] values;
+        private final boolean[] resolved;
+
+        CommandScope(CommandHandler handler) {
+            this.handler = handler;
+            this.values = new Object[handler.commandScopeSize];
+            this.resolved = new boolean[handler.commandScopeSize];
+        }
+
+        @Override
+        public Object get(int index) {
+            int slot = handler.commandScopeSlots[index];
+            if (slot < 0) {
+                return handler.providers[index].get();
+            }
+            if (!resolved[slot]) {
+                values[slot] = handler.providers[index].invoke();
+                resolved[slot] = true;
+            }
+            return values[slot];
         }
 
+        void close(RuntimeException failure) {
+            IllegalStateException closeFailure = null;
+            for (int i = values.length - 1; i >= 0; i--) {
+                if (!(values[i] instanceof AutoCloseable)) {
+                    continue;
+                }
+                try {
+                    ((AutoCloseable) values[i]).close();
+                } catch (Exception e) {
+                    if (failure != null) {
+                        failure.addSuppressed(e);
+                    } else if (closeFailure == null) {
+                        closeFailure = new IllegalStateException("Failed to release command scoped value", e);
+                    } else {
+                        closeFailure.addSuppressed(e);
+                    }
+                }
+            }
+            if (closeFailure != null) {
+                throw closeFailure;
+            }
+        }
     }
 
     static final class TypeDescription {
@@ -183,21 +451,117 @@ public class CommandBusBuilder {
     }
 
     static final class ValueProvider {
-        private final Object target;
-        private final Method method;
+        private static final Object UNRESOLVED = new Object();
+
+        private final Invokers.ProviderInvoker invoker;
         private final TypeDescription providedValueDescription;
+        private final Provider.Scope scope;
+        private final ConcurrentMap<Thread, Object> perThread = new ConcurrentHashMap<>();
+        private volatile Object singleton = UNRESOLVED;
 
-        ValueProvider(Object target, Method method, TypeDescription providedValueDescription) {
-            this.target = target;
-            this.method = method;
+        ValueProvider(Invokers.ProviderInvoker invoker, TypeDescription providedValueDescription, Provider.Scope scope) {
+            this.invoker = invoker;
             this.providedValueDescription = providedValueDescription;
+            this.scope = scope;
+        }
+
+        Object get() {
+            switch (scope) {
+                case SINGLETON:
+                    return singleton();
+                case PER_THREAD:
+                    return perThread();
+                default:
+                    return invoke();
+            }
         }
 
         Object invoke() {
             try {
-                return method.invoke(target);
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                throw new IllegalStateException("Failed to execute value provider", e);
+                return invoker.invoke();
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to execute value provider", new InvocationTargetException(e));
+            }
+        }
+
+        private Object singleton() {
+            Object value = singleton;
+            if (value == UNRESOLVED) {
+                synchronized (this) {
+                    value = singleton;
+                    if (value == UNRESOLVED) {
+                        value = invoke();
+                        singleton = value;
+                    }
+                }
+            }
+            return value;
+        }
+
+        /**
+         * Values are kept per thread until the thread ends. Values of threads that ended are
+         * released whenever a value is resolved for a new thread.
+         */
+        private Object perThread() {
+            Thread thread = Thread.currentThread();
+            Object value = perThread.get(thread);
+            if (value == null) {
+                releaseEndedThreads();
+                value = invoke();
+                perThread.put(thread, value == null ? UNRESOLVED : value);
+            }
+            return value == UNRESOLVED ? null : value;
+        }
+
+        /**
+         * Releases the value resolved for the current thread, if there is one.
+         */
+        void releaseCurrentThread() {
+            release(perThread.remove(Thread.currentThread()));
+        }
+
+        private void releaseEndedThreads() {
+            for (Thread thread : perThread.keySet()) {
+                if (!thread.isAlive()) {
+                    release(perThread.remove(thread));
+                }
+            }
+        }
+
+        private static void release(Object value) {
+            if (value instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) value).close();
+                } catch (Exception e) {
+                    throw new IllegalStateException("Failed to release provided value", e);
+                }
+            }
+        }
+
+        void close() {
+            List<Object> values = new ArrayList<>(perThread.values());
+            perThread.clear();
+            synchronized (this) {
+                if (singleton != UNRESOLVED) {
+                    values.add(singleton);
+                    singleton = UNRESOLVED;
+                }
+            }
+
+            IllegalStateException closeFailure = null;
+            for (Object value : values) {
+                try {
+                    release(value);
+                } catch (IllegalStateException e) {
+                    if (closeFailure == null) {
+                        closeFailure = e;
+                    } else {
+                        closeFailure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (closeFailure != null) {
+                throw closeFailure;
             }
         }
 
@@ -21,9 +21,18 @@ import static java.lang.annotation.ElementType.METHOD;
  * <p>It is possible for a class to have more than one method
  * annotated with {@link CommandHandler}. But there should be
  * <b>exactly one</b> <em>CommandHandler</em> for each <em>>Command</em>
+ *
+ * <p>{@link #bulkhead()} names the {@link Bulkhead} asynchronous executions of
+ * the handled <em>Command</em> are limited by.
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
 @Target(value = METHOD)
 public @interface CommandHandler {
+
+    /**
+     * Name of a {@link Bulkhead} registered with {@link CommandBusBuilder#bulkhead(Bulkhead)},
+     * empty for none.
+     */
+    String bulkhead() default "";
 }
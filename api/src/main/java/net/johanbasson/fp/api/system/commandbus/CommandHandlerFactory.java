@@ -1,6 +1,10 @@
 package net.johanbasson.fp.api.system.commandbus;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -17,29 +21,106 @@ final class CommandHandlerFactory {
     }
 
     static List<Tuple<Class, CommandBusBuilder.CommandHandler>> create(Object candidate, Map<Class, Map<String, CommandBusBuilder.ValueProvider>> valueProvidersMapping) {
-        return extractCommandHandlingMethods(candidate).stream()
+        return GeneratedRoutes.forClass(candidate.getClass())
+                .map(routes -> fromGeneratedRoutes(candidate, routes, valueProvidersMapping, false))
+                .orElseGet(() -> fromReflection(candidate, valueProvidersMapping));
+    }
+
+    static List<Tuple<Class, CommandBusBuilder.CommandHandler>> createBatch(Object candidate, Map<Class, Map<String, CommandBusBuilder.ValueProvider>> valueProvidersMapping) {
+        return GeneratedRoutes.forClass(candidate.getClass())
+                .map(routes -> fromGeneratedRoutes(candidate, routes, valueProvidersMapping, true))
+                .orElseGet(() -> batchFromReflection(candidate, valueProvidersMapping));
+    }
+
+    private static List<Tuple<Class, CommandBusBuilder.CommandHandler>> fromGeneratedRoutes(Object candidate, CommandRoutes routes, Map<Class, Map<String, CommandBusBuilder.ValueProvider>> valueProvidersMapping, boolean batch) {
+        List<Tuple<Class, CommandBusBuilder.CommandHandler>> handlers = new ArrayList<>();
+        routes.register(new CommandRoutes.Registry() {
+            @Override
+            public void handler(Class<?> command, Class<?>[] parameterTypes, String[] parameterNames, String bulkhead, CommandRoutes.HandlerInvoker invoker) {
+                if (!batch) {
+                    handlers.add(new Tuple<>(command, generatedHandler(candidate, parameterTypes, parameterNames, bulkhead, invoker, valueProvidersMapping)));
+                }
+            }
+
+            @Override
+            public void batchHandler(Class<?> command, Class<?>[] parameterTypes, String[] parameterNames, CommandRoutes.HandlerInvoker invoker) {
+                if (batch) {
+                    handlers.add(new Tuple<>(command, generatedHandler(candidate, parameterTypes, parameterNames, "", invoker, valueProvidersMapping)));
+                }
+            }
+
+            @Override
+            public void provider(Class<?> type, String name, Provider.Scope scope, CommandRoutes.ProviderInvoker invoker) {
+            }
+        });
+        return handlers;
+    }
+
+    private static CommandBusBuilder.CommandHandler generatedHandler(Object candidate, Class<?>[] parameterTypes, String[] parameterNames, String bulkhead, CommandRoutes.HandlerInvoker invoker, Map<Class, Map<String, CommandBusBuilder.ValueProvider>> valueProvidersMapping) {
+        List<CommandBusBuilder.TypeDescription> params = new ArrayList<>();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            params.add(new CommandBusBuilder.TypeDescription(parameterTypes[i], parameterNames[i]));
+        }
+        return new CommandBusBuilder.CommandHandler(
+                (cmd, arguments) -> invoker.invoke(candidate, cmd, arguments),
+                getValueProvidersForParams(
+                        candidate.getClass(),
+                        valueProvidersMapping,
+                        params),
+                bulkhead);
+    }
+
+    private static List<Tuple<Class, CommandBusBuilder.CommandHandler>> fromReflection(Object candidate, Map<Class, Map<String, CommandBusBuilder.ValueProvider>> valueProvidersMapping) {
+        return extractCommandHandlingMethods(candidate, CommandHandler.class).stream()
                 .map(method -> {
                     List<CommandBusBuilder.TypeDescription> params = extractParams(method);
                     return new Tuple<>(params.get(0).type, new CommandBusBuilder.CommandHandler(
-                            candidate,
-                            method,
+                            Invokers.handler(candidate, method),
                             getValueProvidersForParams(
                                     candidate.getClass(),
                                     valueProvidersMapping,
-                                    params)));
+                                    params),
+                            method.getAnnotation(CommandHandler.class).bulkhead()));
                 })
                 .collect(toList());
     }
 
+    private static List<Tuple<Class, CommandBusBuilder.CommandHandler>> batchFromReflection(Object candidate, Map<Class, Map<String, CommandBusBuilder.ValueProvider>> valueProvidersMapping) {
+        return extractCommandHandlingMethods(candidate, BatchCommandHandler.class).stream()
+                .map(method -> new Tuple<>(extractBatchCommandType(candidate, method), new CommandBusBuilder.CommandHandler(
+                        Invokers.handler(candidate, method),
+                        getValueProvidersForParams(
+                                candidate.getClass(),
+                                valueProvidersMapping,
+                                extractParams(method)),
+                        "")))
+                .collect(toList());
+    }
+
     private static List<CommandBusBuilder.TypeDescription> extractParams(Method m) {
         return Arrays.stream(m.getParameters())
                 .map(param -> new CommandBusBuilder.TypeDescription(param.getType(), param.getName()))
                 .collect(toList());
     }
 
+    private static Class extractBatchCommandType(Object commandHandler, Method m) {
+        Type commands = m.getGenericParameterTypes()[0];
+        if (m.getParameterTypes()[0] == List.class && commands instanceof ParameterizedType) {
+            Type commandType = ((ParameterizedType) commands).getActualTypeArguments()[0];
+            if (commandType instanceof ParameterizedType) {
+                commandType = ((ParameterizedType) commandType).getRawType();
+            }
+            if (commandType instanceof Class) {
+                return (Class) commandType;
+            }
+        }
+
+        throw new IllegalStateException(format("Batch handle method %s of command handler %s should have a List of commands as first parameter", m.getName(), commandHandler.getClass().getName()));
+    }
+
     @SuppressWarnings("unchecked")
-    private static Set<Method> extractCommandHandlingMethods(Object commandHandler) {
-        Set<Method> handlingMethods = getAllMethods(commandHandler.getClass(), withAnnotation(CommandHandler.class));
+    private static Set<Method> extractCommandHandlingMethods(Object commandHandler, Class<? extends Annotation> annotation) {
+        Set<Method> handlingMethods = getAllMethods(commandHandler.getClass(), withAnnotation(annotation));
         if (handlingMethods.stream()
                 .anyMatch(m -> m.getParameterCount() == 0)) {
 
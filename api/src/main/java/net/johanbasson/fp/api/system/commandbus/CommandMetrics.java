@@ -0,0 +1,68 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+/**
+ * Point-in-time view of the measurements {@link MetricsMiddleware} recorded for one <em>Command</em> type.
+ *
+ * <p>Counts cover everything since the bus was built. Rates, per second, and latency
+ * percentiles cover the middleware's sliding window.
+ */
+public final class CommandMetrics {
+
+    private final String command;
+    private final long count;
+    private final long errors;
+    private final long inFlight;
+    private final double throughput;
+    private final double errorRate;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+
+    CommandMetrics(String command, long count, long errors, long inFlight, double throughput, double errorRate, long p50Nanos, long p99Nanos, long p999Nanos) {
+        this.command = command;
+        this.count = count;
+        this.errors = errors;
+        this.inFlight = inFlight;
+        this.throughput = throughput;
+        this.errorRate = errorRate;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public double getThroughput() {
+        return throughput;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+}
@@ -0,0 +1,18 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+/**
+ * Thrown, or used to complete a <em>Command</em>'s future, when the bus refuses to
+ * accept a <em>Command</em> because it is at capacity.
+ */
+public class CommandRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CommandRejectedException(String message) {
+        super(message);
+    }
+
+    public CommandRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
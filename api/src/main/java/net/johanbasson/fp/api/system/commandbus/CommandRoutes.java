@@ -0,0 +1,54 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+/**
+ * Routing table of a single <em>CommandHandler</em>/<em>ValueProvider</em> class,
+ * generated at compile time by {@link net.johanbasson.fp.api.system.commandbus.processor.CommandRoutingProcessor}.
+ *
+ * <p>Generated tables are discovered with {@link java.util.ServiceLoader} and
+ * take precedence over runtime reflection in {@link CommandBusBuilder#build()}.
+ * Classes without a generated table, e.g. private nested classes, are still
+ * scanned with reflection.
+ */
+public interface CommandRoutes {
+
+    Class<?> target();
+
+    void register(Registry registry);
+
+    interface Registry {
+
+        /**
+         * @param command        Command handled by the method
+         * @param parameterTypes all parameter types of the method, starting with the command
+         * @param parameterNames all parameter names of the method, starting with the command
+         * @param bulkhead       {@link CommandHandler#bulkhead()} of the method
+         */
+        void handler(Class<?> command, Class<?>[] parameterTypes, String[] parameterNames, String bulkhead, HandlerInvoker invoker);
+
+        /**
+         * @param command        Command type of the list the method handles
+         * @param parameterTypes all parameter types of the method, starting with {@code List}
+         * @param parameterNames all parameter names of the method, starting with the commands
+         */
+        void batchHandler(Class<?> command, Class<?>[] parameterTypes, String[] parameterNames, HandlerInvoker invoker);
+
+        void provider(Class<?> type, String name, Provider.Scope scope, ProviderInvoker invoker);
+    }
+
+    @FunctionalInterface
+    interface HandlerInvoker {
+        Object invoke(Object target, Object command, Arguments arguments) throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface ProviderInvoker {
+        Object invoke(Object target) throws Throwable;
+    }
+
+    /**
+     * Resolves the values of a <em>CommandHandler</em>'s additional parameters by position.
+     */
+    interface Arguments {
+        Object get(int index);
+    }
+}
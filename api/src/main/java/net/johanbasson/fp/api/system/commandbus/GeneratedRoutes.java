@@ -0,0 +1,44 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Index of the {@link CommandRoutes} tables found on the classpath, keyed by target class.
+ */
+final class GeneratedRoutes {
+
+    private static final Logger log = LoggerFactory.getLogger(GeneratedRoutes.class);
+
+    private static final Map<Class<?>, CommandRoutes> ROUTES = load();
+
+    private GeneratedRoutes() {
+    }
+
+    static Optional<CommandRoutes> forClass(Class<?> type) {
+        return Optional.ofNullable(ROUTES.get(type));
+    }
+
+    private static Map<Class<?>, CommandRoutes> load() {
+        Map<Class<?>, CommandRoutes> routes = new HashMap<>();
+        Iterator<CommandRoutes> iterator = ServiceLoader.load(CommandRoutes.class, CommandRoutes.class.getClassLoader()).iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    return routes;
+                }
+                CommandRoutes commandRoutes = iterator.next();
+                routes.put(commandRoutes.target(), commandRoutes);
+            } catch (ServiceConfigurationError e) {
+                log.warn("Ignoring generated command routes that could not be loaded", e);
+            }
+        }
+    }
+}
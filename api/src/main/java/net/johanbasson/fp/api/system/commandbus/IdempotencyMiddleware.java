@@ -0,0 +1,141 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import cyclops.control.Maybe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * Returns the stored result for {@link Idempotent} <em>Commands</em> whose key already completed,
+ * and handles and stores the result of the ones that didn't. The key is reserved in the
+ * {@link IdempotencyStore} first, so of two <em>Commands</em> with the same key arriving together
+ * only one is handled. Failed <em>Commands</em> release their key, so they are handled again when retried.
+ *
+ * <p>Register it after {@link net.johanbasson.fp.api.system.transaction.UnitOfWorkMiddleware} when
+ * the store is kept in the database: the key is then reserved, and the result stored, in the
+ * <em>Command</em>'s transaction, and a repeat waits for that transaction to end.
+ *
+ * <p>Only applies to <em>Command</em> types implementing {@link Idempotent}. A {@link CommandBatch}
+ * is deduplicated per <em>Command</em>: only the <em>Commands</em> whose keys haven't completed go on
+ * to the batch handler, once per key, and each key's result is stored on its own. If a key of the
+ * batch is being handled elsewhere, the whole batch fails, as a single <em>Command</em> would.
+ */
+public class IdempotencyMiddleware implements Middleware {
+
+    private final IdempotencyStore store;
+
+    public IdempotencyMiddleware(IdempotencyStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public <R> R execute(Object command, Function<Object, R> next) {
+        if (command instanceof CommandBatch) {
+            return executeBatch((CommandBatch) command, next);
+        }
+        if (!(command instanceof Idempotent)) {
+            return next.apply(command);
+        }
+
+        String key = key(command);
+        Maybe<IdempotencyStore.Completed> completed = store.reserve(key);
+        if (completed.isPresent()) {
+            //noinspection unchecked
+            return (R) completed.orElse(null).result();
+        }
+
+        R result;
+        try {
+            result = next.apply(command);
+        } catch (RuntimeException | Error e) {
+            release(key, e);
+            throw e;
+        }
+        store.complete(key, result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R executeBatch(CommandBatch batch, Function<Object, R> next) {
+        if (!Idempotent.class.isAssignableFrom(batch.commandType())) {
+            return next.apply(batch);
+        }
+
+        List<?> commands = batch.commands();
+        Object[] results = new Object[commands.size()];
+        String[] keys = new String[commands.size()];
+        Map<String, Integer> reserved = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < commands.size(); i++) {
+                keys[i] = key(commands.get(i));
+                if (reserved.containsKey(keys[i])) {
+                    continue;
+                }
+                Maybe<IdempotencyStore.Completed> completed = store.reserve(keys[i]);
+                if (completed.isPresent()) {
+                    results[i] = completed.orElse(null).result();
+                    keys[i] = null;
+                } else {
+                    reserved.put(keys[i], reserved.size());
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            reserved.keySet().forEach(key -> release(key, e));
+            throw e;
+        }
+        if (reserved.isEmpty()) {
+            return (R) Arrays.asList(results);
+        }
+
+        List<Object> handled = new ArrayList<>(reserved.size());
+        for (int i = 0; i < commands.size(); i++) {
+            if (keys[i] != null && reserved.get(keys[i]) == handled.size()) {
+                handled.add(commands.get(i));
+            }
+        }
+        List<?> handledResults;
+        try {
+            handledResults = (List<?>) next.apply(new CommandBatch(batch.commandType(), Collections.unmodifiableList(handled)));
+            if (handledResults != null && handledResults.size() != handled.size()) {
+                throw new IllegalStateException(format("Batch command handler for command %s returned %d results for %d commands",
+                        batch.commandType().getName(),
+                        handledResults.size(),
+                        handled.size()));
+            }
+        } catch (RuntimeException | Error e) {
+            reserved.keySet().forEach(key -> release(key, e));
+            throw e;
+        }
+        reserved.forEach((key, index) -> store.complete(key, handledResults == null ? null : handledResults.get(index)));
+        for (int i = 0; i < commands.size(); i++) {
+            if (keys[i] != null && handledResults != null) {
+                results[i] = handledResults.get(reserved.get(keys[i]));
+            }
+        }
+        return (R) Arrays.asList(results);
+    }
+
+    private static String key(Object command) {
+        return command.getClass().getName() + ":" + ((Idempotent) command).idempotencyKey();
+    }
+
+    private void release(String key, Throwable failure) {
+        try {
+            store.release(key);
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    @Override
+    public boolean appliesTo(Class<?> commandType) {
+        return Idempotent.class.isAssignableFrom(commandType);
+    }
+}
@@ -0,0 +1,41 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import cyclops.control.Maybe;
+
+/**
+ * Keeps the results of completed {@link Idempotent} <em>Commands</em> for {@link IdempotencyMiddleware}.
+ * Implementations bound how long, or how many, results are kept.
+ *
+ * <p>A key is reserved before its <em>Command</em> is handled, so only one of several
+ * <em>Commands</em> with the same key is handled. The reservation is then either completed with
+ * the result or released when the <em>Command</em> fails.
+ *
+ * @see InMemoryIdempotencyStore
+ */
+public interface IdempotencyStore {
+
+    /**
+     * Reserves {@code key}, unless a <em>Command</em> with that key already completed.
+     *
+     * @return the result stored for {@code key}, or nothing if the caller reserved it and should
+     * handle the <em>Command</em>
+     * @throws IllegalStateException if the key is reserved by a <em>Command</em> that hasn't completed yet
+     */
+    Maybe<Completed> reserve(String key);
+
+    /**
+     * Stores the result of the <em>Command</em> that reserved {@code key}.
+     */
+    void complete(String key, Object result);
+
+    /**
+     * Gives up the reservation of {@code key}, so the <em>Command</em> is handled again when retried.
+     */
+    void release(String key);
+
+    /**
+     * Result of a completed <em>Command</em>, {@code null} for void handlers.
+     */
+    record Completed(Object result) {
+    }
+}
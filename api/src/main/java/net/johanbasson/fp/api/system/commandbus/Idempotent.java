@@ -0,0 +1,15 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+/**
+ * <em>Command</em> that carries an idempotency key. With {@link IdempotencyMiddleware} registered,
+ * a <em>Command</em> whose key already completed returns the earlier result instead of being
+ * handled again, so redeliveries and client retries don't repeat its side effects.
+ */
+public interface Idempotent {
+
+    /**
+     * @return key identifying this <em>Command</em>, the same for every delivery of it.
+     * Keys only need to be unique per <em>Command</em> type.
+     */
+    String idempotencyKey();
+}
@@ -0,0 +1,60 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import cyclops.control.Maybe;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.String.format;
+
+/**
+ * {@link IdempotencyStore} holding up to {@code maximumSize} results in memory, each for {@code ttl}.
+ * Only catches repeats handled by the same node.
+ *
+ * <p>Reservations are kept apart from the results, without a bound, so a key stays reserved however
+ * many results are stored meanwhile and however long its <em>Command</em> runs.
+ */
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+
+    private final Cache<String, Completed> completed;
+    private final Set<String> reserved = ConcurrentHashMap.newKeySet();
+
+    public InMemoryIdempotencyStore(long maximumSize, Duration ttl) {
+        this.completed = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    @Override
+    public Maybe<Completed> reserve(String key) {
+        Completed existing = completed.getIfPresent(key);
+        if (existing != null) {
+            return Maybe.just(existing);
+        }
+        if (!reserved.add(key)) {
+            throw new IllegalStateException(format("Command with idempotency key %s is already being handled", key));
+        }
+        // the key may have completed between the lookup and the reservation
+        existing = completed.getIfPresent(key);
+        if (existing != null) {
+            reserved.remove(key);
+            return Maybe.just(existing);
+        }
+        return Maybe.nothing();
+    }
+
+    @Override
+    public void complete(String key, Object result) {
+        completed.put(key, new Completed(result));
+        reserved.remove(key);
+    }
+
+    @Override
+    public void release(String key) {
+        reserved.remove(key);
+    }
+}
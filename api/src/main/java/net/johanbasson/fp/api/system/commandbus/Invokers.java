@@ -0,0 +1,79 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import static java.lang.String.format;
+
+/**
+ * Compiles <em>CommandHandler</em> and <em>ValueProvider</em> methods into direct invokers
+ * once, at {@link CommandBusBuilder#build()} time.
+ *
+ * <p>Methods are unreflected into {@link MethodHandle}s bound to their target and adapted
+ * to an all-{@link Object} signature, so they can be called with {@code invokeExact}.
+ * Handlers with up to four parameters get an arity-specialized invoker that passes
+ * values straight through; anything wider falls back to a spreader.
+ *
+ * <p>Only used for classes without a generated {@link CommandRoutes} table.
+ */
+final class Invokers {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private Invokers() {
+    }
+
+    static HandlerInvoker handler(Object target, Method method) {
+        int arity = method.getParameterCount();
+        MethodHandle handle = bind(target, method).asType(MethodType.genericMethodType(arity));
+
+        switch (arity) {
+            case 1:
+                return (command, arguments) -> (Object) handle.invokeExact(command);
+            case 2:
+                return (command, arguments) -> (Object) handle.invokeExact(command, arguments.get(0));
+            case 3:
+                return (command, arguments) -> (Object) handle.invokeExact(command, arguments.get(0), arguments.get(1));
+            case 4:
+                return (command, arguments) -> (Object) handle.invokeExact(command, arguments.get(0), arguments.get(1), arguments.get(2));
+            default:
+                MethodHandle spreader = handle.asSpreader(Object[].class, arity);
+                return (command, arguments) -> {
+                    Object[] params = new Object[arity];
+                    params[0] = command;
+                    for (int i = 1; i < arity; i++) {
+                        params[i] = arguments.get(i - 1);
+                    }
+                    return (Object) spreader.invokeExact(params);
+                };
+        }
+    }
+
+    static ProviderInvoker provider(Object target, Method method) {
+        MethodHandle handle = bind(target, method).asType(MethodType.genericMethodType(0));
+        return () -> (Object) handle.invokeExact();
+    }
+
+    private static MethodHandle bind(Object target, Method method) {
+        try {
+            method.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflect(method);
+            return Modifier.isStatic(method.getModifiers()) ? handle : handle.bindTo(target);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalStateException(format("Unable to create invoker for method %s of %s", method.getName(), target.getClass().getName()), e);
+        }
+    }
+
+    @FunctionalInterface
+    interface HandlerInvoker {
+        Object invoke(Object command, CommandRoutes.Arguments arguments) throws Throwable;
+    }
+
+    @FunctionalInterface
+    interface ProviderInvoker {
+        Object invoke() throws Throwable;
+    }
+}
@@ -0,0 +1,96 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets: each power of two is split into
+ * eight equal buckets, so a recorded value is off by at most 12.5%
+ * while the whole {@code long} range fits in a fixed array. Recording is a single
+ * atomic increment and never allocates.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int SIZE = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(SIZE);
+
+    void record(long nanos) {
+        buckets.incrementAndGet(bucket(Math.max(nanos, 0)));
+    }
+
+    /**
+     * @return the value below which {@code quantile} of the recorded values fall,
+     * or 0 if nothing has been recorded
+     */
+    long percentile(double quantile) {
+        long[] counts = new long[SIZE];
+        addTo(counts);
+        return percentile(counts, quantile);
+    }
+
+    /**
+     * Adds the count of every bucket to {@code counts}, to merge histograms.
+     */
+    void addTo(long[] counts) {
+        for (int i = 0; i < SIZE; i++) {
+            counts[i] += buckets.get(i);
+        }
+    }
+
+    /**
+     * Forgets the recorded values. Values recorded while it resets may or may not be kept.
+     */
+    void reset() {
+        for (int i = 0; i < SIZE; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    /**
+     * @param counts bucket counts collected with {@link #addTo(long[])}
+     */
+    static long percentile(long[] counts, double quantile) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(counts.length - 1);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lowerBound + width - 1;
+    }
+}
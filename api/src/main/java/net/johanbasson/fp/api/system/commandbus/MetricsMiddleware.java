@@ -0,0 +1,190 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.lang.String.format;
+
+/**
+ * Records latency, throughput, errors and in-flight executions per <em>Command</em> type.
+ *
+ * <p>Recording is lock-free: counters are {@link LongAdder}s and latencies go into a
+ * {@link LatencyHistogram}, so the middleware can stay registered in production.
+ * A {@link CommandBatch} is recorded under its command type, counting every command in it.
+ *
+ * <p>Rates and latency percentiles cover a sliding window: executions are recorded in the
+ * newest of a ring of slots, and a ticker thread starts a new slot every {@code window / slots},
+ * forgetting the oldest one. Taking a {@link #snapshot()} only reads, so any number of readers
+ * see the same rates.
+ *
+ * <p>Register it first to measure the time spent in the other <em>Middleware</em> too.
+ */
+public class MetricsMiddleware implements Middleware, AutoCloseable {
+
+    private static final Duration WINDOW = Duration.ofMinutes(1);
+    private static final int SLOTS = 6;
+
+    private final Map<Class<?>, Recorder> recorders = new ConcurrentHashMap<>();
+    private final int slots;
+    private final long slotNanos;
+    private final ScheduledExecutorService ticker;
+
+    private volatile int current;
+    private volatile long currentStart = System.nanoTime();
+    private volatile int rotations;
+
+    public MetricsMiddleware() {
+        this(WINDOW, SLOTS);
+    }
+
+    /**
+     * @param window time covered by rates and latency percentiles
+     * @param slots number of steps in which the window slides
+     */
+    public MetricsMiddleware(Duration window, int slots) {
+        if (slots < 1 || window.toNanos() < slots) {
+            throw new IllegalArgumentException(format("Metrics window must be split into at least 1 slot, got %s in %d", window, slots));
+        }
+        this.slots = slots;
+        this.slotNanos = window.toNanos() / slots;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "command-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this::rotate, slotNanos, slotNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public <R> R execute(Object command, Function<Object, R> next) {
+        Recorder recorder;
+        int commands;
+        if (command instanceof CommandBatch) {
+            CommandBatch batch = (CommandBatch) command;
+            recorder = recorder(batch.commandType());
+            commands = batch.commands().size();
+        } else {
+            recorder = recorder(command.getClass());
+            commands = 1;
+        }
+
+        recorder.inFlight.add(commands);
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            R result = next.apply(command);
+            succeeded = true;
+            return result;
+        } finally {
+            recorder.record(current, commands, !succeeded, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return metrics of every <em>Command</em> type executed so far, ordered by type name
+     */
+    public List<CommandMetrics> snapshot() {
+        long start = currentStart;
+        long covered = Math.min(rotations, slots) * slotNanos + Math.max(System.nanoTime() - start, 1);
+        double seconds = covered / 1_000_000_000d;
+
+        List<CommandMetrics> snapshot = new ArrayList<>();
+        recorders.forEach((type, recorder) -> snapshot.add(recorder.snapshot(type.getName(), seconds)));
+        snapshot.sort(Comparator.comparing(CommandMetrics::getCommand));
+        return snapshot;
+    }
+
+    /**
+     * Starts a new slot, dropping the oldest one out of the window.
+     */
+    void rotate() {
+        int next = (current + 1) % (slots + 1);
+        recorders.values().forEach(recorder -> recorder.slots[next].reset());
+        currentStart = System.nanoTime();
+        current = next;
+        if (rotations < slots) {
+            rotations++;
+        }
+    }
+
+    private Recorder recorder(Class<?> type) {
+        Recorder recorder = recorders.get(type);
+        return recorder != null ? recorder : recorders.computeIfAbsent(type, t -> new Recorder(slots + 1));
+    }
+
+    /**
+     * Stops the ticker, rates and percentiles stop sliding.
+     */
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+
+    private static final class Recorder {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final Slot[] slots;
+
+        Recorder(int slots) {
+            this.slots = new Slot[slots];
+            for (int i = 0; i < slots; i++) {
+                this.slots[i] = new Slot();
+            }
+        }
+
+        void record(int slot, int commands, boolean failed, long nanos) {
+            Slot recording = slots[slot];
+            recording.latencies.record(nanos);
+            recording.count.add(commands);
+            count.add(commands);
+            if (failed) {
+                recording.errors.add(commands);
+                errors.add(commands);
+            }
+            inFlight.add(-commands);
+        }
+
+        CommandMetrics snapshot(String command, double seconds) {
+            long windowCount = 0;
+            long windowErrors = 0;
+            long[] latencies = new long[LatencyHistogram.SIZE];
+            for (Slot slot : slots) {
+                windowCount += slot.count.sum();
+                windowErrors += slot.errors.sum();
+                slot.latencies.addTo(latencies);
+            }
+
+            return new CommandMetrics(command,
+                    count.sum(),
+                    errors.sum(),
+                    inFlight.sum(),
+                    windowCount / seconds,
+                    windowErrors / seconds,
+                    LatencyHistogram.percentile(latencies, 0.5),
+                    LatencyHistogram.percentile(latencies, 0.99),
+                    LatencyHistogram.percentile(latencies, 0.999));
+        }
+    }
+
+    private static final class Slot {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        void reset() {
+            count.reset();
+            errors.reset();
+            latencies.reset();
+        }
+    }
+}
@@ -9,7 +9,7 @@ import java.util.function.Function;
  * <ul>
  * <li>Start transactional context</li>
  * <li>Log</li>
- * <li>Measure execution time</li>
+ * <li>Measure execution time, see {@link MetricsMiddleware}</li>
  * </ul>
  *
  * <p> <b>Please, don't forget to call next.apply(command)</b>
@@ -30,4 +30,16 @@ import java.util.function.Function;
 
 public interface Middleware {
     <R> R execute(Object command, Function<Object, R> next);
+
+    /**
+     * Asked once per <em>Command</em> class, when the first <em>Command</em> of the class is executed. <em>Middleware</em> that
+     * doesn't apply to a type is left out of that type's chain and never sees its <em>Commands</em>.
+     * <em>Commands</em> executed as a {@link CommandBatch} are matched by their type.
+     * @param commandType class of the <em>Command</em>, which may be a subtype of the one its
+     *                    {@link CommandHandler} or {@link BatchCommandHandler} handles
+     * @return true if {@link #execute(Object, Function)} should be called for <em>Commands</em> of this type
+     */
+    default boolean appliesTo(Class<?> commandType) {
+        return true;
+    }
 }
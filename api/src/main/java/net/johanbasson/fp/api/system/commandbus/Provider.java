@@ -20,6 +20,15 @@ import static java.lang.annotation.ElementType.METHOD;
  * <p>It is possible for a class to have more than one method
  * annotated with {@link CommandHandler}. But the combination of
  * method return type and method name should be unique.
+ *
+ * <p>{@link #scope()} controls how often the method is called. By default
+ * it is called for every <em>CommandHandler</em> param it resolves. Scoped
+ * values are cached by the bus, and values implementing {@link AutoCloseable}
+ * are closed when their scope ends: after the <em>Command</em> completes
+ * for {@link Scope#PER_COMMAND}, once their thread has ended for {@link Scope#PER_THREAD},
+ * on {@link CommandBus#close()} otherwise. A bus running commands on a new thread each, see
+ * {@link CommandBusBuilder#virtualThreads()}, closes per-thread values as soon as the
+ * <em>Command</em> completes.
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
@@ -28,4 +37,17 @@ public @interface Provider {
 
     String name() default "value";
 
+    Scope scope() default Scope.PROTOTYPE;
+
+    enum Scope {
+        /** Called every time a value is required. */
+        PROTOTYPE,
+        /** Called once for the lifetime of the bus. */
+        SINGLETON,
+        /** Called once per thread executing commands. */
+        PER_THREAD,
+        /** Called at most once per <em>Command</em> execution. */
+        PER_COMMAND
+    }
+
 }
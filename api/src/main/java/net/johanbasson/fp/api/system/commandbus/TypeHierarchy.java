@@ -0,0 +1,72 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.lang.String.format;
+
+/**
+ * Finds what is registered for the closest type in a <em>Command</em>'s hierarchy.
+ *
+ * <p>The class itself and its superclasses are tried first, closest first. Then its interfaces,
+ * breadth first: directly implemented interfaces, then the interfaces they extend, and so on.
+ * Two matching interfaces at the same distance are ambiguous.
+ *
+ * <p>Resolution walks the hierarchy, so callers cache the result per class in a {@link ClassValue}.
+ */
+final class TypeHierarchy {
+
+    private TypeHierarchy() {
+    }
+
+    /**
+     * @return the value registered for the closest type, or {@code null} if there is none
+     * @throws IllegalStateException if two interfaces at the same distance are registered
+     */
+    static <T> T resolve(Map<Class, T> registered, Class<?> type) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            T value = registered.get(current);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        Set<Class<?>> visited = new LinkedHashSet<>();
+        List<Class<?>> level = interfacesOf(Collections.singletonList(type));
+        while (!level.isEmpty()) {
+            Class<?> match = null;
+            for (Class<?> candidate : level) {
+                if (!visited.add(candidate) || !registered.containsKey(candidate)) {
+                    continue;
+                }
+                if (match != null) {
+                    throw new IllegalStateException(format("Command %s matches both %s and %s, register one for %s itself",
+                            type.getName(),
+                            match.getName(),
+                            candidate.getName(),
+                            type.getSimpleName()));
+                }
+                match = candidate;
+            }
+            if (match != null) {
+                return registered.get(match);
+            }
+            level = interfacesOf(level);
+        }
+        return null;
+    }
+
+    private static List<Class<?>> interfacesOf(List<Class<?>> types) {
+        List<Class<?>> interfaces = new ArrayList<>();
+        for (Class<?> type : types) {
+            for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                Collections.addAll(interfaces, current.getInterfaces());
+            }
+        }
+        return interfaces;
+    }
+}
@@ -1,6 +1,7 @@
 package net.johanbasson.fp.api.system.commandbus;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -15,8 +16,39 @@ final class ValueProviderFactory {
     }
 
     static List<CommandBusBuilder.ValueProvider> create(Object candidate) {
+        return GeneratedRoutes.forClass(candidate.getClass())
+                .map(routes -> fromGeneratedRoutes(candidate, routes))
+                .orElseGet(() -> fromReflection(candidate));
+    }
+
+    private static List<CommandBusBuilder.ValueProvider> fromGeneratedRoutes(Object candidate, CommandRoutes routes) {
+        List<CommandBusBuilder.ValueProvider> providers = new ArrayList<>();
+        routes.register(new CommandRoutes.Registry() {
+            @Override
+            public void handler(Class<?> command, Class<?>[] parameterTypes, String[] parameterNames, String bulkhead, CommandRoutes.HandlerInvoker invoker) {
+            }
+
+            @Override
+            public void batchHandler(Class<?> command, Class<?>[] parameterTypes, String[] parameterNames, CommandRoutes.HandlerInvoker invoker) {
+            }
+
+            @Override
+            public void provider(Class<?> type, String name, Provider.Scope scope, CommandRoutes.ProviderInvoker invoker) {
+                providers.add(new CommandBusBuilder.ValueProvider(
+                        () -> invoker.invoke(candidate),
+                        new CommandBusBuilder.TypeDescription(type, name),
+                        scope));
+            }
+        });
+        return providers;
+    }
+
+    private static List<CommandBusBuilder.ValueProvider> fromReflection(Object candidate) {
         return extractValueProviderMethods(candidate).stream()
-                .map(method -> new CommandBusBuilder.ValueProvider(candidate, method, extractProvidedValueDescription(method)))
+                .map(method -> new CommandBusBuilder.ValueProvider(
+                        Invokers.provider(candidate, method),
+                        extractProvidedValueDescription(method),
+                        method.getAnnotation(Provider.class).scope()))
                 .collect(toList());
     }
 
@@ -0,0 +1,53 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates a virtual-thread-per-task executor when the runtime supports it.
+ *
+ * <p>The module targets a release without virtual threads, so the factory method
+ * is looked up reflectively, once, when the bus is built.
+ */
+final class VirtualThreads {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final int FALLBACK_POOL_SIZE = Runtime.getRuntime().availableProcessors() * 8;
+
+    private VirtualThreads() {
+    }
+
+    private static final Method FACTORY = factory();
+
+    static ExecutorService newExecutor() {
+        if (FACTORY != null) {
+            try {
+                return (ExecutorService) FACTORY.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                log.warn("Unable to create a virtual thread executor", e);
+            }
+        }
+        log.warn("Virtual threads are not available on this runtime, using {} platform threads for commands", FALLBACK_POOL_SIZE);
+        return Executors.newFixedThreadPool(FALLBACK_POOL_SIZE);
+    }
+
+    /**
+     * @return true if {@link #newExecutor()} starts a new thread for every task
+     */
+    static boolean available() {
+        return FACTORY != null;
+    }
+
+    private static Method factory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
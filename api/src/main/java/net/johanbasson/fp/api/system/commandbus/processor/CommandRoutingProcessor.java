@@ -0,0 +1,320 @@
+package net.johanbasson.fp.api.system.commandbus.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static java.lang.String.format;
+
+/**
+ * Generates a {@code CommandRoutes} table for every class declaring methods annotated with
+ * {@code @CommandHandler}, {@code @BatchCommandHandler} or {@code @Provider}, and registers the tables as services.
+ *
+ * <p>The tables call the annotated methods directly, so {@code CommandBusBuilder}
+ * does not need to scan classes with reflection at startup. Classes the generated
+ * code cannot reach (private classes or methods, abstract classes) and classes with
+ * invalid methods are skipped; the bus falls back to reflection for them, which
+ * also reports the invalid methods.
+ */
+@SupportedAnnotationTypes({CommandRoutingProcessor.COMMAND_HANDLER, CommandRoutingProcessor.BATCH_COMMAND_HANDLER, CommandRoutingProcessor.PROVIDER})
+public class CommandRoutingProcessor extends AbstractProcessor {
+
+    static final String COMMAND_HANDLER = "net.johanbasson.fp.api.system.commandbus.CommandHandler";
+    static final String BATCH_COMMAND_HANDLER = "net.johanbasson.fp.api.system.commandbus.BatchCommandHandler";
+    static final String PROVIDER = "net.johanbasson.fp.api.system.commandbus.Provider";
+
+    private static final String COMMAND_ROUTES = "net.johanbasson.fp.api.system.commandbus.CommandRoutes";
+    private static final String SERVICE_FILE = "META-INF/services/" + COMMAND_ROUTES;
+
+    private final Set<String> generated = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServiceFile();
+            return false;
+        }
+
+        Set<TypeElement> targets = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.METHOD) {
+                    targets.add((TypeElement) element.getEnclosingElement());
+                }
+            }
+        }
+
+        for (TypeElement target : targets) {
+            if (isReachable(target)) {
+                generate(target);
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement target) {
+        List<ExecutableElement> handlers = new ArrayList<>();
+        List<ExecutableElement> batchHandlers = new ArrayList<>();
+        List<ExecutableElement> providers = new ArrayList<>();
+        for (Element member : processingEnv.getElementUtils().getAllMembers(target)) {
+            if (member.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) member;
+            boolean handler = annotation(method, COMMAND_HANDLER) != null;
+            boolean batchHandler = annotation(method, BATCH_COMMAND_HANDLER) != null;
+            boolean provider = annotation(method, PROVIDER) != null;
+            if (!handler && !batchHandler && !provider) {
+                continue;
+            }
+            if (!isReachable(target, method)
+                    || (handler && method.getParameters().isEmpty())
+                    || (batchHandler && batchCommandType(method) == null)
+                    || (provider && !method.getParameters().isEmpty())) {
+                note(target, "not reachable from generated code or invalid, reflection will be used");
+                return;
+            }
+            if (handler) {
+                handlers.add(method);
+            }
+            if (batchHandler) {
+                batchHandlers.add(method);
+            }
+            if (provider) {
+                providers.add(method);
+            }
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(target).getQualifiedName().toString();
+        String simpleName = routesName(target);
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+        String targetName = erasure(target.asType());
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+                .append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n")
+                .append("public final class ").append(simpleName).append(" implements ").append(COMMAND_ROUTES).append(" {\n\n")
+                .append("    @Override\n")
+                .append("    public Class<?> target() {\n")
+                .append("        return ").append(targetName).append(".class;\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public void register(").append(COMMAND_ROUTES).append(".Registry registry) {\n");
+
+        for (ExecutableElement handler : handlers) {
+            appendHandler(source, targetName, handler);
+        }
+        for (ExecutableElement batchHandler : batchHandlers) {
+            appendBatchHandler(source, targetName, batchHandler);
+        }
+        for (ExecutableElement provider : providers) {
+            appendProvider(source, targetName, provider);
+        }
+
+        source.append("    }\n")
+                .append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, target).openWriter()) {
+            writer.write(source.toString());
+            generated.add(qualifiedName);
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, format("Unable to generate command routes: %s", e.getMessage()), target);
+        }
+    }
+
+    private void appendHandler(StringBuilder source, String targetName, ExecutableElement handler) {
+        source.append("        registry.handler(").append(erasure(handler.getParameters().get(0).asType())).append(".class,\n");
+        appendRoute(source, handler);
+        source.append("                \"").append(annotationValue(handler, COMMAND_HANDLER, "bulkhead", "")).append("\",\n");
+        appendInvoker(source, targetName, handler);
+    }
+
+    private void appendBatchHandler(StringBuilder source, String targetName, ExecutableElement handler) {
+        source.append("        registry.batchHandler(").append(erasure(batchCommandType(handler))).append(".class,\n");
+        appendRoute(source, handler);
+        appendInvoker(source, targetName, handler);
+    }
+
+    private void appendRoute(StringBuilder source, ExecutableElement handler) {
+        List<String> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (VariableElement param : handler.getParameters()) {
+            types.add(erasure(param.asType()) + ".class");
+            names.add("\"" + param.getSimpleName() + "\"");
+        }
+        source.append("                new Class<?>[] {").append(String.join(", ", types)).append("},\n")
+                .append("                new String[] {").append(String.join(", ", names)).append("},\n");
+    }
+
+    private void appendInvoker(StringBuilder source, String targetName, ExecutableElement handler) {
+        List<? extends VariableElement> params = handler.getParameters();
+        List<String> arguments = new ArrayList<>();
+        for (int i = 0; i < params.size(); i++) {
+            String type = erasure(params.get(i).asType());
+            arguments.add(i == 0
+                    ? format("(%s) command", type)
+                    : format("(%s) arguments.get(%d)", type, i - 1));
+        }
+
+        String call = format("((%s) target).%s(%s)", targetName, handler.getSimpleName(), String.join(", ", arguments));
+        String body = handler.getReturnType().getKind() == TypeKind.VOID
+                ? format("{\n                    %s;\n                    return null;\n                }", call)
+                : call;
+
+        source.append("                (target, command, arguments) -> ").append(body).append(");\n");
+    }
+
+    private TypeMirror batchCommandType(ExecutableElement handler) {
+        if (handler.getParameters().isEmpty()) {
+            return null;
+        }
+        TypeMirror commands = handler.getParameters().get(0).asType();
+        if (commands.getKind() != TypeKind.DECLARED || !erasure(commands).equals(List.class.getName())) {
+            return null;
+        }
+        List<? extends TypeMirror> arguments = ((DeclaredType) commands).getTypeArguments();
+        return arguments.size() == 1 && arguments.get(0).getKind() == TypeKind.DECLARED
+                ? arguments.get(0)
+                : null;
+    }
+
+    private void appendProvider(StringBuilder source, String targetName, ExecutableElement provider) {
+        source.append("        registry.provider(").append(erasure(provider.getReturnType())).append(".class,\n")
+                .append("                \"").append(provider.getSimpleName()).append("\",\n")
+                .append("                net.johanbasson.fp.api.system.commandbus.Provider.Scope.").append(scope(provider)).append(",\n")
+                .append("                target -> ((").append(targetName).append(") target).").append(provider.getSimpleName()).append("());\n");
+    }
+
+    private String scope(ExecutableElement provider) {
+        return annotationValue(provider, PROVIDER, "scope", "PROTOTYPE");
+    }
+
+    private static String annotationValue(Element element, String annotationType, String name, String defaultValue) {
+        AnnotationMirror mirror = annotation(element, annotationType);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                Object value = entry.getValue().getValue();
+                return value instanceof VariableElement
+                        ? ((VariableElement) value).getSimpleName().toString()
+                        : escape(value.toString());
+            }
+        }
+        return defaultValue;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private boolean isReachable(TypeElement target) {
+        if (target.getKind() != ElementKind.CLASS || target.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+        for (Element element = target; element instanceof TypeElement; element = element.getEnclosingElement()) {
+            TypeElement type = (TypeElement) element;
+            if (type.getModifiers().contains(Modifier.PRIVATE)
+                    || type.getNestingKind() == NestingKind.LOCAL
+                    || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isReachable(TypeElement target, ExecutableElement method) {
+        Set<Modifier> modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        PackageElement methodPackage = processingEnv.getElementUtils().getPackageOf(method);
+        PackageElement targetPackage = processingEnv.getElementUtils().getPackageOf(target);
+        return methodPackage.equals(targetPackage);
+    }
+
+    private static AnnotationMirror annotation(Element element, String annotationType) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationType)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private String erasure(TypeMirror type) {
+        return processingEnv.getTypeUtils().erasure(type).toString();
+    }
+
+    private static String routesName(TypeElement target) {
+        StringBuilder name = new StringBuilder(target.getSimpleName());
+        for (Element element = target.getEnclosingElement(); element instanceof TypeElement; element = element.getEnclosingElement()) {
+            name.insert(0, element.getSimpleName() + "_");
+        }
+        return name.append("_CommandRoutes").toString();
+    }
+
+    private void note(TypeElement target, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, format("%s: %s", target.getQualifiedName(), message), target);
+    }
+
+    private void writeServiceFile() {
+        if (generated.isEmpty()) {
+            return;
+        }
+        Set<String> services = new TreeSet<>(generated);
+        try {
+            FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            try (Reader reader = existing.openReader(true); BufferedReader lines = new BufferedReader(reader)) {
+                lines.lines().map(String::trim).filter(line -> !line.isEmpty()).forEach(services::add);
+            }
+        } catch (IOException e) {
+            // No services registered by a previous compilation
+        }
+
+        try (Writer writer = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE).openWriter()) {
+            for (String service : services) {
+                writer.write(service);
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, format("Unable to register command routes: %s", e.getMessage()));
+        }
+    }
+}
@@ -11,6 +11,7 @@ public enum ErrorType {
     USER_ALREADY_EXISTS("User already exists"),
     EMAIL_CANNOT_BE_EMPTY("Email cannot be empty"),
     INTERNAL_SERVER_ERROR("Internal Server Error"),
+    SERVICE_UNAVAILABLE("Service Unavailable, please try again later"),
     UNAUTHORIZED("Unauthorized"),
     NAME_CANNOT_BE_EMPTY("Name cannot be empty"),
     WORKSPACE_ALREADY_EXISTS("Workspace already exists"),
@@ -1,7 +1,7 @@
 package net.johanbasson.fp.api.system.events;
 
+import net.johanbasson.fp.api.system.transaction.UnitOfWork;
 import net.johanbasson.fp.api.users.Principal;
-import org.sql2o.Connection;
 import org.sql2o.Sql2o;
 
 public class JdbcEventRepository implements EventRepository {
@@ -14,12 +14,11 @@ public class JdbcEventRepository implements EventRepository {
 
     @Override
     public void append(Principal principal, String type, String payload) {
-        try (Connection con = sql2o.open()) {
-            con.createQuery("INSERT INTO events() VALUES (event_date, event_type, user_id) VALUES (now(), :type, :user, :payload)")
-                    .addParameter("type", type)
-                    .addParameter("user", principal.getId())
-                    .addParameter("payload", payload)
-                    .executeUpdate();
-        }
+        UnitOfWork.withConnection(sql2o, con ->
+                con.createQuery("INSERT INTO events (event_date, event_type, user_id, payload) VALUES (now(), :type, :user, CAST(:payload AS JSON))")
+                        .addParameter("type", type)
+                        .addParameter("user", principal.getId())
+                        .addParameter("payload", payload)
+                        .executeUpdate());
     }
 }
@@ -0,0 +1,150 @@
+package net.johanbasson.fp.api.system.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cyclops.control.Maybe;
+import net.johanbasson.fp.api.system.commandbus.IdempotencyStore;
+import net.johanbasson.fp.api.system.transaction.UnitOfWork;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.data.Row;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * {@link IdempotencyStore} keeping results in the {@code idempotency_keys} table, so a repeat
+ * is caught whichever node handles it. Results are stored as JSON and kept for {@code ttl};
+ * expired rows are deleted every thousand reservations.
+ *
+ * <p>A key is reserved by inserting its row, in the current {@link UnitOfWork}. A repeat handled
+ * meanwhile by another node blocks on the row until the first <em>Command</em>'s transaction ends,
+ * and then gets its result, or reserves the key itself if the transaction was rolled back.
+ *
+ * <p>Results are read back as one of the {@code resultTypes} the store was created with, and
+ * storing a result of any other type fails.
+ */
+public class JdbcIdempotencyStore implements IdempotencyStore {
+
+    private static final int EVICTION_INTERVAL = 1000;
+    private static final int RESERVE_ATTEMPTS = 3;
+
+    private final Sql2o sql2o;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final Map<String, Class<?>> resultTypes = new HashMap<>();
+    private final AtomicInteger reservations = new AtomicInteger();
+
+    public JdbcIdempotencyStore(Sql2o sql2o, ObjectMapper objectMapper, Duration ttl, List<Class<?>> resultTypes) {
+        this.sql2o = sql2o;
+        this.objectMapper = objectMapper;
+        this.ttl = ttl;
+        resultTypes.forEach(type -> this.resultTypes.put(type.getName(), type));
+    }
+
+    @Override
+    public Maybe<Completed> reserve(String key) {
+        if (reservations.incrementAndGet() % EVICTION_INTERVAL == 0) {
+            evictExpired();
+        }
+
+        for (int attempt = 0; attempt < RESERVE_ATTEMPTS; attempt++) {
+            Maybe<Completed> reserved = UnitOfWork.withConnection(sql2o, con -> tryReserve(con, key));
+            if (reserved != null) {
+                return reserved;
+            }
+        }
+        throw new IllegalStateException(format("Unable to reserve idempotency key %s", key));
+    }
+
+    /**
+     * @return the stored result, nothing if the key was reserved, or null if the row was deleted
+     * between the insert and the read, so reserving should be tried again
+     */
+    private Maybe<Completed> tryReserve(Connection con, String key) {
+        int inserted = con.createQuery("INSERT INTO idempotency_keys (key, completed, created) VALUES (:key, false, now()) " +
+                "ON CONFLICT (key) DO UPDATE SET completed = false, result_type = NULL, result = NULL, created = now() " +
+                "WHERE idempotency_keys.created <= now() - :ttl * INTERVAL '1 second'")
+                .addParameter("key", key)
+                .addParameter("ttl", ttl.getSeconds())
+                .executeUpdate()
+                .getResult();
+        if (inserted == 1) {
+            return Maybe.nothing();
+        }
+
+        List<Row> rows = con.createQuery("SELECT completed, result_type, result FROM idempotency_keys WHERE key = :key")
+                .addParameter("key", key)
+                .executeAndFetchTable()
+                .rows();
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Row row = rows.get(0);
+        if (!row.getBoolean("completed")) {
+            throw new IllegalStateException(format("Command with idempotency key %s is already being handled", key));
+        }
+        return Maybe.just(new Completed(read(key, row.getString("result_type"), row.getString("result"))));
+    }
+
+    private Object read(String key, String typeName, String result) {
+        if (typeName == null) {
+            return null;
+        }
+        Class<?> type = resultTypes.get(typeName);
+        if (type == null) {
+            throw new IllegalStateException(format("Result stored for idempotency key %s has unregistered type %s", key, typeName));
+        }
+        try {
+            return objectMapper.readValue(result, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(format("Unable to read result stored for idempotency key %s", key), e);
+        }
+    }
+
+    @Override
+    public void complete(String key, Object result) {
+        if (result != null && !resultTypes.containsKey(result.getClass().getName())) {
+            throw new IllegalStateException(format("Result type %s of idempotency key %s is not registered", result.getClass().getName(), key));
+        }
+        try {
+            String json = result == null ? null : objectMapper.writeValueAsString(result);
+            UnitOfWork.withConnection(sql2o, con ->
+                    con.createQuery("UPDATE idempotency_keys SET completed = true, result_type = :type, result = :result WHERE key = :key")
+                            .addParameter("key", key)
+                            .addParameter("type", result == null ? null : result.getClass().getName())
+                            .addParameter("result", json)
+                            .executeUpdate());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(format("Unable to store result for idempotency key %s", key), e);
+        }
+    }
+
+    /**
+     * Within a unit of work the reservation is rolled back with the failed <em>Command</em>.
+     */
+    @Override
+    public void release(String key) {
+        if (UnitOfWork.isActive(sql2o)) {
+            return;
+        }
+        try (Connection con = sql2o.open()) {
+            con.createQuery("DELETE FROM idempotency_keys WHERE key = :key AND completed = false")
+                    .addParameter("key", key)
+                    .executeUpdate();
+        }
+    }
+
+    private void evictExpired() {
+        try (Connection con = sql2o.open()) {
+            con.createQuery("DELETE FROM idempotency_keys WHERE created <= now() - :ttl * INTERVAL '1 second'")
+                    .addParameter("ttl", ttl.getSeconds())
+                    .executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package net.johanbasson.fp.api.system.outbox;
+
+import net.johanbasson.fp.api.system.queue.MessageCodec;
+import net.johanbasson.fp.api.system.transaction.UnitOfWork;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import org.sql2o.data.Row;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static java.lang.String.format;
+
+/**
+ * {@link Outbox} keeping events, encoded by the {@link MessageCodec}, in the {@code outbox} table.
+ * Events are written in the current {@link UnitOfWork}.
+ *
+ * <p>Events are claimed by pushing their {@code next_attempt_at} past the lease, in a single
+ * statement that skips rows locked by other relays claiming at the same time. No lock is held
+ * while the claimed events are published.
+ */
+public class JdbcOutbox implements Outbox {
+
+    private static final String INSERT = "INSERT INTO outbox (payload, next_attempt_at, created) VALUES (:payload, now(), now())";
+
+    private final Sql2o sql2o;
+    private final MessageCodec codec;
+
+    public JdbcOutbox(Sql2o sql2o, MessageCodec codec) {
+        this.sql2o = sql2o;
+        this.codec = codec;
+    }
+
+    @Override
+    public void add(Object event) {
+        byte[] payload = encode(event);
+        UnitOfWork.withConnection(sql2o, con ->
+                con.createQuery(INSERT)
+                        .addParameter("payload", payload)
+                        .executeUpdate());
+    }
+
+    @Override
+    public void addAll(List<?> events) {
+        UnitOfWork.inTransaction(sql2o, con -> {
+            Query query = con.createQuery(INSERT);
+            for (Object event : events) {
+                query.addParameter("payload", encode(event))
+                        .addToBatch();
+            }
+            return query.executeBatch();
+        });
+    }
+
+    @Override
+    public List<Entry> claim(int limit, Duration lease) {
+        return UnitOfWork.withConnection(sql2o, con ->
+                con.createQuery("UPDATE outbox SET next_attempt_at = now() + :lease * INTERVAL '1 millisecond' " +
+                        "WHERE id IN (SELECT id FROM outbox WHERE next_attempt_at <= now() ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED) " +
+                        "RETURNING id, payload, attempts")
+                        .addParameter("lease", lease.toMillis())
+                        .addParameter("limit", limit)
+                        .executeAndFetchTable()
+                        .rows()
+                        .stream()
+                        .map(JdbcOutbox::entry)
+                        .sorted(Comparator.comparingLong(Entry::id))
+                        .collect(Collectors.toList()));
+    }
+
+    @Override
+    public void delete(List<Long> ids) {
+        UnitOfWork.inTransaction(sql2o, con -> {
+            Query query = con.createQuery("DELETE FROM outbox WHERE id = :id");
+            ids.forEach(id -> query.addParameter("id", id).addToBatch());
+            return query.executeBatch();
+        });
+    }
+
+    @Override
+    public void reschedule(long id, Duration delay) {
+        UnitOfWork.withConnection(sql2o, con ->
+                con.createQuery("UPDATE outbox SET attempts = attempts + 1, next_attempt_at = now() + :delay * INTERVAL '1 millisecond' WHERE id = :id")
+                        .addParameter("delay", delay.toMillis())
+                        .addParameter("id", id)
+                        .executeUpdate());
+    }
+
+    private static Entry entry(Row row) {
+        return new Entry(row.getLong("id"), (byte[]) row.getObject("payload"), row.getInteger("attempts"));
+    }
+
+    private byte[] encode(Object event) {
+        try {
+            return codec.encode(event);
+        } catch (IOException e) {
+            throw new IllegalStateException(format("Unable to encode %s for the outbox", event.getClass().getName()), e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package net.johanbasson.fp.api.system.outbox;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Events waiting to be published. Events are added in the transaction of the change they describe,
+ * so they are only published if that change is committed, and an {@link OutboxRelay} publishes
+ * them afterwards.
+ */
+public interface Outbox {
+
+    void add(Object event);
+
+    void addAll(List<?> events);
+
+    /**
+     * Claims up to {@code limit} events that are due, oldest first. Claimed events aren't due again
+     * until {@code lease} has passed, so other relays skip them, and a relay that stops before it
+     * deleted or rescheduled them leaves them to the others.
+     */
+    List<Entry> claim(int limit, Duration lease);
+
+    /**
+     * Deletes events that were published.
+     */
+    void delete(List<Long> ids);
+
+    /**
+     * Makes an event that failed to publish due again after {@code delay}, counting the attempt.
+     */
+    void reschedule(long id, Duration delay);
+
+    /**
+     * @param payload the event, encoded by the {@link net.johanbasson.fp.api.system.queue.MessageCodec}
+     * @param attempts number of times publishing the event failed
+     */
+    record Entry(long id, byte[] payload, int attempts) {
+    }
+}
@@ -0,0 +1,176 @@
+package net.johanbasson.fp.api.system.outbox;
+
+import net.johanbasson.fp.api.system.queue.EventDispatcher;
+import net.johanbasson.fp.api.system.queue.RetryPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.lang.String.format;
+
+/**
+ * Publishes the events in the {@link Outbox} through the {@link EventDispatcher}, and deletes
+ * them once the transport accepted them.
+ *
+ * <p>Once {@link #start() started}, every poll interval the relay {@link Outbox#claim claims} up
+ * to {@code batchSize} due events, and keeps claiming while batches come back full. Claiming takes
+ * no lock that outlives it, so relays on several nodes share the outbox, and nothing is locked
+ * while the relay waits for the transport. The claimed events are split into chunks within the
+ * dispatcher's batch limits, each published as one {@link EventDispatcher#publish(List) batch}
+ * message. The events of the chunks the transport accepted are deleted in one go, those of the
+ * chunks it didn't are put back with their next attempt delayed by the {@link RetryPolicy},
+ * without holding up the others.
+ *
+ * <p>Events are published at least once: if the node stops between the publish and the delete,
+ * another relay publishes them again once their claim has run out.
+ */
+public class OutboxRelay implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRelay.class);
+    private static final Duration PUBLISH_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration CLAIM_LEASE = PUBLISH_TIMEOUT.multipliedBy(2);
+
+    private final Outbox outbox;
+    private final EventDispatcher dispatcher;
+    private final int batchSize;
+    private final long pollMillis;
+    private final RetryPolicy retryPolicy;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param retryPolicy delays the next attempt of events that failed to publish, its attempts are ignored
+     */
+    public OutboxRelay(Outbox outbox, EventDispatcher dispatcher, int batchSize, Duration pollInterval, RetryPolicy retryPolicy) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(format("Outbox batch size must be at least 1, got %d", batchSize));
+        }
+        this.outbox = outbox;
+        this.dispatcher = dispatcher;
+        this.batchSize = batchSize;
+        this.pollMillis = pollInterval.toMillis();
+        this.retryPolicy = retryPolicy;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts polling the outbox on the relay's own thread.
+     */
+    public void start() {
+        timer.scheduleWithFixedDelay(this::relay, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void relay() {
+        try {
+            int claimed;
+            do {
+                claimed = relayBatch();
+            } while (claimed == batchSize && !Thread.currentThread().isInterrupted());
+        } catch (RuntimeException e) {
+            log.error("Unable to relay the outbox", e);
+        }
+    }
+
+    /**
+     * @return number of events claimed
+     */
+    private int relayBatch() {
+        List<Outbox.Entry> entries = outbox.claim(batchSize, CLAIM_LEASE);
+        List<List<Outbox.Entry>> chunks = chunks(entries);
+        List<CompletableFuture<Void>> published = new ArrayList<>(chunks.size());
+        for (List<Outbox.Entry> chunk : chunks) {
+            List<byte[]> frames = new ArrayList<>(chunk.size());
+            chunk.forEach(entry -> frames.add(entry.payload()));
+            published.add(dispatcher.publish(frames));
+        }
+
+        long deadline = System.nanoTime() + PUBLISH_TIMEOUT.toNanos();
+        List<Long> delivered = new ArrayList<>(entries.size());
+        Throwable failure = null;
+        int failed = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            List<Outbox.Entry> chunk = chunks.get(i);
+            Throwable publishFailure = await(published.get(i), deadline);
+            if (publishFailure == null) {
+                chunk.forEach(entry -> delivered.add(entry.id()));
+                continue;
+            }
+            failure = publishFailure;
+            failed += chunk.size();
+            for (Outbox.Entry entry : chunk) {
+                outbox.reschedule(entry.id(), retryPolicy.delay(entry.attempts() + 1));
+            }
+        }
+        if (!delivered.isEmpty()) {
+            outbox.delete(delivered);
+        }
+        if (failed > 0) {
+            log.warn("Unable to publish {} of {} outbox events, retrying them later", failed, entries.size(), failure);
+        }
+        return entries.size();
+    }
+
+    /**
+     * Splits {@code entries} into chunks that stay within the dispatcher's batch size and bytes,
+     * an event larger than the byte limit going on its own.
+     */
+    private List<List<Outbox.Entry>> chunks(List<Outbox.Entry> entries) {
+        int maxEvents = dispatcher.maxBatchSize();
+        int maxBytes = dispatcher.maxBatchBytes();
+        List<List<Outbox.Entry>> chunks = new ArrayList<>();
+        List<Outbox.Entry> chunk = new ArrayList<>();
+        long bytes = 0;
+        for (Outbox.Entry entry : entries) {
+            if (!chunk.isEmpty() && (chunk.size() >= maxEvents || bytes + entry.payload().length > maxBytes)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                bytes = 0;
+            }
+            chunk.add(entry);
+            bytes += entry.payload().length;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * @return why the publish failed, or null if the transport accepted it
+     */
+    private static Throwable await(CompletableFuture<Void> published, long deadline) {
+        try {
+            published.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            return e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        try {
+            timer.awaitTermination(PUBLISH_TIMEOUT.toSeconds(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
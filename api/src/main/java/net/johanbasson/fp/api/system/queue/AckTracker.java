@@ -0,0 +1,82 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.Channel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static java.lang.String.format;
+
+/**
+ * Acknowledges deliveries on a manual-ack channel once they have been processed, in batches.
+ *
+ * <p>Deliveries may complete in any order, but a multiple ack covers every delivery up to its tag.
+ * The tracker therefore only acks the longest run of completed deliveries from the oldest one
+ * still unacknowledged, with a single multiple ack once {@code batchSize} of them have piled up
+ * or nothing is left in flight. Rejected deliveries are nacked straight away, on their own.
+ */
+final class AckTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(AckTracker.class);
+
+    private final Channel channel;
+    private final int batchSize;
+    private final NavigableMap<Long, Boolean> inFlight = new TreeMap<>();
+    private long lastCompleted = -1;
+    private int unacknowledged;
+
+    AckTracker(Channel channel, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(format("Ack batch size must be at least 1, got %d", batchSize));
+        }
+        this.channel = channel;
+        this.batchSize = batchSize;
+    }
+
+    synchronized void delivered(long deliveryTag) {
+        inFlight.put(deliveryTag, Boolean.FALSE);
+    }
+
+    synchronized void acknowledge(long deliveryTag) {
+        inFlight.replace(deliveryTag, Boolean.TRUE);
+        advance();
+    }
+
+    synchronized void reject(long deliveryTag, boolean requeue) {
+        inFlight.remove(deliveryTag);
+        try {
+            channel.basicNack(deliveryTag, false, requeue);
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to reject delivery {}", deliveryTag, e);
+        }
+        advance();
+    }
+
+    /**
+     * @return number of deliveries received but not yet acknowledged or rejected
+     */
+    synchronized int pendingCount() {
+        return inFlight.size() + unacknowledged;
+    }
+
+    private void advance() {
+        Map.Entry<Long, Boolean> oldest;
+        while ((oldest = inFlight.firstEntry()) != null && oldest.getValue()) {
+            inFlight.pollFirstEntry();
+            lastCompleted = oldest.getKey();
+            unacknowledged++;
+        }
+        if (unacknowledged > 0 && (unacknowledged >= batchSize || inFlight.isEmpty())) {
+            try {
+                channel.basicAck(lastCompleted, true);
+            } catch (IOException | RuntimeException e) {
+                log.error("Unable to acknowledge deliveries up to {}", lastCompleted, e);
+            }
+            unacknowledged = 0;
+        }
+    }
+}
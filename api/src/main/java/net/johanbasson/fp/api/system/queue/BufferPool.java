@@ -0,0 +1,59 @@
+package net.johanbasson.fp.api.system.queue;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free pool of heap {@link ByteBuffer}s messages are encoded into, so encoding doesn't
+ * allocate and grow a new buffer for every message. Buffers grown beyond {@code maxPooledCapacity}
+ * are left to the garbage collector instead of being returned to the pool.
+ */
+final class BufferPool {
+
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int initialCapacity;
+    private final int maxPooledCapacity;
+    private final int maxSize;
+
+    BufferPool(int initialCapacity, int maxPooledCapacity, int maxSize) {
+        this.initialCapacity = initialCapacity;
+        this.maxPooledCapacity = maxPooledCapacity;
+        this.maxSize = maxSize;
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(initialCapacity);
+        }
+        size.decrementAndGet();
+        return buffer.clear();
+    }
+
+    void release(ByteBuffer buffer) {
+        if (buffer.capacity() > maxPooledCapacity) {
+            return;
+        }
+        if (size.incrementAndGet() > maxSize) {
+            size.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return {@code buffer}'s content in a buffer with room for at least {@code required} more bytes
+     */
+    static ByteBuffer ensureRemaining(ByteBuffer buffer, int required) {
+        if (buffer.remaining() >= required) {
+            return buffer;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + required);
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        return grown.put(buffer);
+    }
+}
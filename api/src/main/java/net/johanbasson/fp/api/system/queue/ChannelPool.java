@@ -0,0 +1,87 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static java.lang.String.format;
+
+/**
+ * A fixed set of confirming channels over one shared connection, so concurrent publishers don't
+ * have to take turns on a single channel.
+ *
+ * <p>A publish borrows an idle channel, publishes on it and hands it back; a channel is only ever
+ * used by one thread at a time. Publishing blocks while every channel is borrowed.
+ */
+final class ChannelPool implements AutoCloseable {
+
+    private final List<Pooled> channels;
+    private final BlockingQueue<Pooled> idle;
+
+    ChannelPool(Connection connection, int size, int confirmWindow) throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException(format("Channel pool requires a size of at least 1, got %d", size));
+        }
+        this.channels = new ArrayList<>(size);
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            Channel channel = connection.createChannel();
+            Pooled pooled = new Pooled(channel, new ConfirmingPublisher(channel, confirmWindow));
+            channels.add(pooled);
+            idle.add(pooled);
+        }
+    }
+
+    CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        Pooled pooled;
+        try {
+            pooled = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new IOException("Interrupted waiting for a channel", e));
+        }
+        try {
+            return pooled.publisher.publish(exchange, routingKey, properties, body);
+        } finally {
+            idle.add(pooled);
+        }
+    }
+
+    int size() {
+        return channels.size();
+    }
+
+    /**
+     * @return number of channels not currently borrowed by a publisher
+     */
+    int idleCount() {
+        return idle.size();
+    }
+
+    @Override
+    public void close() throws IOException, TimeoutException {
+        for (Pooled pooled : channels) {
+            if (pooled.channel.isOpen()) {
+                pooled.channel.close();
+            }
+        }
+    }
+
+    private static final class Pooled {
+        private final Channel channel;
+        private final ConfirmingPublisher publisher;
+
+        Pooled(Channel channel, ConfirmingPublisher publisher) {
+            this.channel = channel;
+            this.publisher = publisher;
+        }
+    }
+}
@@ -1,42 +1,51 @@
 package net.johanbasson.fp.api.system.queue;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import net.johanbasson.fp.api.config.Configuration;
 import net.johanbasson.fp.api.system.Constants;
-import org.msgpack.jackson.dataformat.MessagePackFactory;
 
 import java.io.IOException;
-import java.util.concurrent.TimeoutException;
-
-public class CommandDispatcher implements AutoCloseable{
-
-    private final Connection connection;
-    private final Channel channel;
-    private final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
-
-    public CommandDispatcher(Configuration configuration) throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(configuration.rabbitMq().host());
-        factory.setPort(configuration.rabbitMq().port());
-        factory.setUsername(configuration.rabbitMq().username());
-        factory.setPassword(configuration.rabbitMq().password());
-        connection = factory.newConnection();
-        channel = connection.createChannel();
-
-        channel.queueDeclare(Constants.Queues.COMMANDS, true, false, false, null);
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.String.format;
+
+/**
+ * Sends <em>Commands</em> to the command partition queues, hashing {@link Partitioned} ones by their
+ * key so every <em>Command</em> of a key lands on the same partition.
+ */
+public class CommandDispatcher {
+
+    private final Transport transport;
+    private final MessageCodec codec;
+    private final int partitions;
+
+    public CommandDispatcher(Transport transport, MessageCodec codec, int partitions) throws IOException {
+        if (partitions < 1) {
+            throw new IllegalArgumentException(format("Command queue requires at least 1 partition, got %d", partitions));
+        }
+        this.transport = transport;
+        this.codec = codec;
+        this.partitions = partitions;
+        for (int partition = 0; partition < partitions; partition++) {
+            transport.declare(Constants.Queues.commandPartition(partition), true);
+        }
     }
 
-    public void dispatch(Object command) throws IOException {
-        byte[] body = objectMapper.writeValueAsBytes(command);
-        channel.basicPublish("", Constants.Queues.COMMANDS, null, objectMapper.writeValueAsBytes(new CommandEnvelope(body, command.getClass().getName())));
+    /**
+     * @return future completed when the transport accepts the command, or completed exceptionally
+     * if it can't be encoded or published
+     */
+    public CompletableFuture<Void> dispatch(Object command) {
+        try {
+            return transport.publish(Constants.Queues.commandPartition(partition(command)), codec.encode(command));
+        } catch (IOException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
     }
 
-    @Override
-    public void close() throws Exception {
-        channel.close();
-        connection.close();
+    int partition(Object command) {
+        if (command instanceof Partitioned partitioned) {
+            return Math.floorMod(partitioned.partitionKey().hashCode(), partitions);
+        }
+        return ThreadLocalRandom.current().nextInt(partitions);
     }
 }
@@ -1,5 +0,0 @@
-package net.johanbasson.fp.api.system.queue;
-
-public record CommandEnvelope(byte[] body, String clazz) {
-
-}
@@ -1,65 +1,138 @@
 package net.johanbasson.fp.api.system.queue;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.rabbitmq.client.*;
-import net.johanbasson.fp.api.config.Configuration;
 import net.johanbasson.fp.api.system.Constants;
 import net.johanbasson.fp.api.system.commandbus.CommandBus;
-import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.concurrent.TimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Consumes <em>Commands</em> from the command partition queues and executes them asynchronously on the {@link CommandBus}.
+ *
+ * <p>Each partition's <em>Commands</em> execute one after the other, in the order they were
+ * dispatched, while partitions execute in parallel. Partition queues have a single active
+ * consumer, so other workers consuming them stand by and take over when this one stops.
+ * Commands left on the unpartitioned command queue by earlier versions are still consumed, in no
+ * particular order.
+ *
+ * <p>Deliveries are acknowledged only once their command has executed, so a crash leaves
+ * unprocessed commands on the queue. Commands that fail, including those the bus rejects because
+ * it is at capacity, are retried according to the {@link RetryPolicy}, then dead-lettered. A
+ * partition retries a command in place, holding back the commands after it until it succeeds or
+ * is dead-lettered, so a failure doesn't break the order. A command of the unpartitioned queue is
+ * published again for its retry instead. Commands that can't be decoded are dead-lettered straight away.
+ */
 public class CommandWorker implements AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(CommandWorker.class);
 
-    private final Connection connection;
-    private final Channel channel;
     private final CommandBus commandBus;
-    private final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
+    private final MessageCodec codec;
+    private final RetryPolicy retryPolicy;
+    private final RetryScheduler retries;
+    private final List<Closeable> consumers = new ArrayList<>();
 
-    public CommandWorker(Configuration configuration, CommandBus commandBus) throws IOException, TimeoutException {
+    public CommandWorker(Transport transport, MessageCodec codec, CommandBus commandBus, RetryPolicy retryPolicy, int partitions) throws IOException {
+        this.codec = codec;
         this.commandBus = commandBus;
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(configuration.rabbitMq().host());
-        factory.setPort(configuration.rabbitMq().port());
-        factory.setUsername(configuration.rabbitMq().username());
-        factory.setPassword(configuration.rabbitMq().password());
-        connection = factory.newConnection();
-        channel = connection.createChannel();
-        channel.queueDeclare(Constants.Queues.COMMANDS, true, false, false, null);
-        start();
+        this.retryPolicy = retryPolicy;
+        transport.declare(Constants.Queues.COMMANDS);
+        transport.declareDeadLetter(Constants.Queues.COMMANDS_DEAD_LETTER);
+        retries = new RetryScheduler(transport, Constants.Queues.COMMANDS_DEAD_LETTER, retryPolicy);
+        for (int partition = 0; partition < partitions; partition++) {
+            String queue = Constants.Queues.commandPartition(partition);
+            transport.declare(queue, true);
+            Partition ordered = new Partition(queue);
+            consumers.add(transport.consume(queue, ordered::handle));
+        }
+        consumers.add(transport.consume(Constants.Queues.COMMANDS, delivery -> handle(Constants.Queues.COMMANDS, delivery)));
     }
 
-    private void start() throws IOException {
-        DefaultConsumer consumer = new DefaultConsumer(channel) {
-            @Override
-            public void handleDelivery(
-                    String consumerTag,
-                    Envelope envelope,
-                    AMQP.BasicProperties properties,
-                    byte[] body) throws IOException {
-
-                try {
-                    CommandEnvelope commandEnvelope = objectMapper.readValue(body, CommandEnvelope.class);
-                    Object command = objectMapper.readValue(commandEnvelope.body(), Class.forName(commandEnvelope.clazz()));
-                    commandBus.execute(command);
-                } catch (ClassNotFoundException e) {
-                    log.error("Unable to deserialize command envelope", e);
-                    throw new IOException("Unable to process message - " + e.getLocalizedMessage());
-                }
+    private void handle(String queue, Delivery delivery) {
+        Object command;
+        try {
+            command = codec.decode(delivery.body());
+        } catch (IOException e) {
+            retries.deadLetter(queue, delivery, e);
+            return;
+        }
+        commandBus.executeAsync(command)
+                .whenComplete((result, ex) -> {
+                    if (ex == null) {
+                        delivery.ack();
+                    } else {
+                        retries.retry(queue, delivery, cause(ex));
+                    }
+                });
+    }
 
-            }
-        };
-        channel.basicConsume(Constants.Queues.COMMANDS, true, consumer);
+    private static Throwable cause(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
     }
 
     @Override
-    public void close() throws Exception {
-        channel.close();
-        connection.close();
+    public void close() throws IOException {
+        for (Closeable consumer : consumers) {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Chains a partition's deliveries so each command starts once the previous one has succeeded
+     * or been dead-lettered. A queue's deliveries arrive on one thread at a time, so the chain
+     * needs no locking.
+     */
+    private final class Partition {
+        private final String queue;
+        private CompletableFuture<Void> last = CompletableFuture.completedFuture(null);
+
+        Partition(String queue) {
+            this.queue = queue;
+        }
+
+        void handle(Delivery delivery) {
+            last = last.thenCompose(previous -> execute(delivery));
+        }
+
+        private CompletableFuture<Void> execute(Delivery delivery) {
+            Object command;
+            try {
+                command = codec.decode(delivery.body());
+            } catch (IOException e) {
+                retries.deadLetter(queue, delivery, e);
+                return CompletableFuture.completedFuture(null);
+            }
+            return execute(command, delivery, RetryScheduler.attempt(delivery));
+        }
+
+        /**
+         * @return future completed, never exceptionally, once the command succeeded or was dead-lettered
+         */
+        private CompletableFuture<Void> execute(Object command, Delivery delivery, int attempt) {
+            return commandBus.executeAsync(command)
+                    .handle((result, ex) -> ex)
+                    .thenCompose(ex -> {
+                        if (ex == null) {
+                            delivery.ack();
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        if (!retryPolicy.shouldRetry(attempt)) {
+                            retries.deadLetter(queue, delivery, attempt, cause(ex));
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        Duration delay = retryPolicy.delay(attempt);
+                        log.warn("Attempt {} of a command on {} failed, retrying in {} ms", attempt, queue, delay.toMillis(), cause(ex));
+                        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS))
+                                .thenCompose(waited -> execute(command, delivery, attempt + 1));
+                    });
+        }
     }
 }
@@ -0,0 +1,107 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+
+import static java.lang.String.format;
+
+/**
+ * Publishes on a channel in confirm mode and tracks the broker's confirms asynchronously.
+ *
+ * <p>Every publish returns a future completed when the broker acks the message, or completed
+ * exceptionally when it nacks it or the channel closes first. Up to {@code window} messages may be
+ * awaiting their confirm; publishing blocks while the window is full, so a slow broker pushes back
+ * on publishers instead of unconfirmed messages piling up.
+ */
+final class ConfirmingPublisher {
+
+    private final Channel channel;
+    private final Semaphore window;
+    private final ConcurrentNavigableMap<Long, CompletableFuture<Void>> outstanding = new ConcurrentSkipListMap<>();
+
+    ConfirmingPublisher(Channel channel, int window) throws IOException {
+        this.channel = channel;
+        this.window = new Semaphore(window);
+        channel.confirmSelect();
+        channel.addConfirmListener(new ConfirmListener() {
+            @Override
+            public void handleAck(long deliveryTag, boolean multiple) {
+                confirmed(deliveryTag, multiple, null);
+            }
+
+            @Override
+            public void handleNack(long deliveryTag, boolean multiple) {
+                confirmed(deliveryTag, multiple, new IOException("Message was rejected by the broker"));
+            }
+        });
+        channel.addShutdownListener(cause -> {
+            for (Long deliveryTag : outstanding.keySet()) {
+                complete(outstanding.remove(deliveryTag), new IOException("Channel closed before the message was confirmed", cause));
+            }
+        });
+    }
+
+    CompletableFuture<Void> publish(String exchange, String routingKey, AMQP.BasicProperties properties, byte[] body) {
+        CompletableFuture<Void> confirmation = new CompletableFuture<>();
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            confirmation.completeExceptionally(new IOException("Interrupted waiting for unconfirmed messages", e));
+            return confirmation;
+        }
+
+        long deliveryTag = -1;
+        try {
+            synchronized (channel) {
+                deliveryTag = channel.getNextPublishSeqNo();
+                outstanding.put(deliveryTag, confirmation);
+                channel.basicPublish(exchange, routingKey, properties, body);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (deliveryTag < 0 || outstanding.remove(deliveryTag, confirmation)) {
+                complete(confirmation, new IOException(format("Unable to publish to %s", routingKey), e));
+            }
+        }
+        return confirmation;
+    }
+
+    /**
+     * @return number of published messages awaiting their confirm
+     */
+    int outstandingCount() {
+        return outstanding.size();
+    }
+
+    private void confirmed(long deliveryTag, boolean multiple, Throwable failure) {
+        if (!multiple) {
+            complete(outstanding.remove(deliveryTag), failure);
+            return;
+        }
+
+        Map<Long, CompletableFuture<Void>> confirmed = outstanding.headMap(deliveryTag, true);
+        for (Long tag : confirmed.keySet()) {
+            complete(outstanding.remove(tag), failure);
+        }
+    }
+
+    private void complete(CompletableFuture<Void> confirmation, Throwable failure) {
+        if (confirmation == null) {
+            return;
+        }
+        window.release();
+        if (failure == null) {
+            confirmation.complete(null);
+        } else {
+            confirmation.completeExceptionally(failure);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package net.johanbasson.fp.api.system.queue;
+
+/**
+ * Point-in-time view of one of the {@link ConnectionManager}'s connections.
+ */
+public final class ConnectionHealth {
+
+    private final String connection;
+    private final boolean open;
+    private final boolean recovering;
+    private final long recoveries;
+
+    ConnectionHealth(String connection, boolean open, boolean recovering, long recoveries) {
+        this.connection = connection;
+        this.open = open;
+        this.recovering = recovering;
+        this.recoveries = recoveries;
+    }
+
+    public String getConnection() {
+        return connection;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public boolean isRecovering() {
+        return recovering;
+    }
+
+    /**
+     * @return number of times the connection recovered since it was opened
+     */
+    public long getRecoveries() {
+        return recoveries;
+    }
+}
@@ -0,0 +1,141 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import net.johanbasson.fp.api.config.Configuration;
+import net.johanbasson.fp.api.config.RabbitMq;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Owns the process' connections to RabbitMQ and hands out channels on them.
+ *
+ * <p>Publishers and consumers get a connection each, so the broker throttling a publishing
+ * connection under memory pressure doesn't also stall the consumers that would relieve it.
+ * Both connections recover automatically, topology included: the queues declared and consumers
+ * registered on their channels are restored once the broker is reachable again.
+ */
+public class ConnectionManager implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionManager.class);
+
+    private final Managed publishing;
+    private final Managed consuming;
+
+    public ConnectionManager(Configuration configuration) throws IOException, TimeoutException {
+        this(connectionFactory(configuration.rabbitMq()));
+    }
+
+    ConnectionManager(ConnectionFactory factory) throws IOException, TimeoutException {
+        this.publishing = new Managed("publishing", factory.newConnection("fp-publishing"));
+        try {
+            this.consuming = new Managed("consuming", factory.newConnection("fp-consuming"));
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            publishing.connection.abort();
+            throw e;
+        }
+    }
+
+    private static ConnectionFactory connectionFactory(RabbitMq rabbitMq) {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setHost(rabbitMq.host());
+        factory.setPort(rabbitMq.port());
+        factory.setUsername(rabbitMq.username());
+        factory.setPassword(rabbitMq.password());
+        factory.setAutomaticRecoveryEnabled(true);
+        factory.setTopologyRecoveryEnabled(true);
+        factory.setNetworkRecoveryInterval(rabbitMq.recoveryIntervalMillis());
+        return factory;
+    }
+
+    /**
+     * @return connection for channels that publish
+     */
+    public Connection publishing() {
+        return publishing.connection;
+    }
+
+    public Channel publishingChannel() throws IOException {
+        return publishing.connection.createChannel();
+    }
+
+    public Channel consumingChannel() throws IOException {
+        return consuming.connection.createChannel();
+    }
+
+    /**
+     * @return true if every connection is open
+     */
+    public boolean isHealthy() {
+        return publishing.connection.isOpen() && consuming.connection.isOpen();
+    }
+
+    public List<ConnectionHealth> health() {
+        List<ConnectionHealth> health = new ArrayList<>(2);
+        health.add(publishing.health());
+        health.add(consuming.health());
+        return health;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            publishing.close();
+        } finally {
+            consuming.close();
+        }
+    }
+
+    private static final class Managed implements RecoveryListener {
+        private final String name;
+        private final Connection connection;
+        private final AtomicBoolean recovering = new AtomicBoolean();
+        private final LongAdder recoveries = new LongAdder();
+
+        Managed(String name, Connection connection) {
+            this.name = name;
+            this.connection = connection;
+            if (connection instanceof Recoverable recoverable) {
+                recoverable.addRecoveryListener(this);
+            }
+            connection.addShutdownListener(cause -> {
+                if (!cause.isInitiatedByApplication()) {
+                    log.warn("RabbitMQ {} connection lost", name, cause);
+                }
+            });
+        }
+
+        @Override
+        public void handleRecoveryStarted(Recoverable recoverable) {
+            recovering.set(true);
+            log.info("Recovering RabbitMQ {} connection", name);
+        }
+
+        @Override
+        public void handleRecovery(Recoverable recoverable) {
+            recovering.set(false);
+            recoveries.increment();
+            log.info("Recovered RabbitMQ {} connection", name);
+        }
+
+        ConnectionHealth health() {
+            return new ConnectionHealth(name, connection.isOpen(), recovering.get(), recoveries.sum());
+        }
+
+        void close() throws IOException {
+            if (connection.isOpen()) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package net.johanbasson.fp.api.system.queue;
+
+import java.util.Map;
+
+/**
+ * A message handed to a {@link Transport} consumer. Every delivery must be settled exactly once,
+ * with {@link #ack()} or {@link #reject(boolean)}, from any thread.
+ */
+public interface Delivery {
+
+    byte[] body();
+
+    Map<String, Object> headers();
+
+    void ack();
+
+    /**
+     * @param requeue put the message back on its queue to be delivered again, rather than drop it
+     */
+    void reject(boolean requeue);
+}
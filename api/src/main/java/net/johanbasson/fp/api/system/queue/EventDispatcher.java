@@ -1,49 +1,237 @@
 package net.johanbasson.fp.api.system.queue;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
-import net.johanbasson.fp.api.config.Configuration;
 import net.johanbasson.fp.api.system.Constants;
-import org.msgpack.jackson.dataformat.MessagePackFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.TimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+import static java.lang.String.format;
+
+/**
+ * Publishes events to the event queue.
+ *
+ * <p>With a batch size above 1, events are buffered and published together in one
+ * {@link MessageCodec#encodeBatch(List) batch} message, once the batch is full, once its encoded
+ * events reach the byte limit, or once its first event has waited for the linger time, whichever
+ * comes first. Batches are drained under the buffer's lock and handed, in that order, to a single
+ * publishing thread, so events leave in the order they were dispatched while no thread waits for
+ * the transport holding the lock. A thread that fills a batch waits while too many batches are
+ * queued for publishing, so a burst of events is still held back by the transport.
+ */
 public class EventDispatcher implements AutoCloseable {
 
-    private final Connection connection;
-    private final Channel channel;
-    private final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
     private static final Logger log = LoggerFactory.getLogger(EventDispatcher.class);
+    private static final int MAX_QUEUED_BATCHES = 16;
+    private static final long QUEUED_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+
+    private final Transport transport;
+    private final MessageCodec codec;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final long lingerMillis;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService publisher;
+    private final AtomicInteger queuedBatches = new AtomicInteger();
 
-    public EventDispatcher(Configuration configuration) throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(configuration.rabbitMq().host());
-        factory.setPort(configuration.rabbitMq().port());
-        factory.setUsername(configuration.rabbitMq().username());
-        factory.setPassword(configuration.rabbitMq().password());
-        connection = factory.newConnection();
-        channel = connection.createChannel();
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private int pendingBytes;
+    private long batch;
+    private boolean closed;
 
-        channel.queueDeclare(Constants.Queues.EVENTS, true, false, false, null);
+    public EventDispatcher(Transport transport, MessageCodec codec) throws IOException {
+        this(transport, codec, 1, Integer.MAX_VALUE, Duration.ZERO);
     }
 
-    public void dispatch(Object event)  {
+    /**
+     * @param maxBatchSize maximum number of events in one message, 1 to publish every event on its own
+     * @param maxBatchBytes encoded size of the buffered events at which they are published
+     * @param linger how long an event waits for others to share its message
+     */
+    public EventDispatcher(Transport transport, MessageCodec codec, int maxBatchSize, int maxBatchBytes, Duration linger) throws IOException {
+        if (maxBatchSize < 1 || maxBatchBytes < 1) {
+            throw new IllegalArgumentException(format("Event batches require at least 1 event and 1 byte, got %d and %d", maxBatchSize, maxBatchBytes));
+        }
+        if (linger.isNegative()) {
+            throw new IllegalArgumentException(format("Event linger can't be negative, got %s", linger));
+        }
+        this.transport = transport;
+        this.codec = codec;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMillis = linger.toMillis();
+        this.timer = maxBatchSize == 1 ? null : Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = maxBatchSize == 1 ? null : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        transport.declare(Constants.Queues.EVENTS);
+    }
+
+    /**
+     * @return future completed when the transport accepts the event, or completed exceptionally
+     * if it can't be encoded or published
+     */
+    public CompletableFuture<Void> dispatch(Object event) {
+        byte[] frame;
         try {
-            byte[] body = objectMapper.writeValueAsBytes(event);
-            channel.basicPublish("", Constants.Queues.COMMANDS, null, objectMapper.writeValueAsBytes(new EventEnvelope(body, event.getClass().getName())));
+            frame = codec.encode(event);
         } catch (IOException ex) {
-            log.error("Unable to publish to RabbitMQ", ex);
+            log.error("Unable to publish event", ex);
+            return CompletableFuture.failedFuture(ex);
+        }
+        CompletableFuture<Void> published = timer == null
+                ? transport.publish(Constants.Queues.EVENTS, frame)
+                : enqueue(frame);
+        return published.whenComplete((confirmed, ex) -> {
+            if (ex != null) {
+                log.error("Unable to publish event", ex);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> enqueue(byte[] frame) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean filled = false;
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("Event dispatcher is closed"));
+            }
+            pending.add(new Pending(frame, future));
+            pendingBytes += frame.length;
+            if (pending.size() >= maxBatchSize || pendingBytes >= maxBatchBytes) {
+                handOff(drain());
+                filled = true;
+            } else if (pending.size() == 1) {
+                long lingering = batch;
+                timer.schedule(() -> linger(lingering), lingerMillis, TimeUnit.MILLISECONDS);
+            }
         }
+        if (filled) {
+            while (queuedBatches.get() > MAX_QUEUED_BATCHES && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(this, QUEUED_BACKOFF_NANOS);
+            }
+        }
+        return future;
+    }
+
+    private void linger(long lingering) {
+        synchronized (lock) {
+            if (batch == lingering && !pending.isEmpty()) {
+                handOff(drain());
+            }
+        }
+    }
+
+    private List<Pending> drain() {
+        List<Pending> drained = pending;
+        pending = new ArrayList<>(drained.size());
+        pendingBytes = 0;
+        batch++;
+        return drained;
+    }
+
+    /**
+     * Queues a drained batch for the publishing thread. Called under the lock, so batches are
+     * published in the order they were drained.
+     */
+    private void handOff(List<Pending> events) {
+        queuedBatches.incrementAndGet();
+        publisher.execute(() -> {
+            try {
+                flush(events);
+            } finally {
+                queuedBatches.decrementAndGet();
+            }
+        });
     }
 
+    private void flush(List<Pending> events) {
+        List<byte[]> frames = new ArrayList<>(events.size());
+        events.forEach(event -> frames.add(event.frame()));
+        publish(frames).whenComplete((confirmed, ex) -> {
+            for (Pending event : events) {
+                if (ex == null) {
+                    event.future().complete(null);
+                } else {
+                    event.future().completeExceptionally(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return maximum number of events in one message
+     */
+    public int maxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @return encoded size of the events at which a batch is published
+     */
+    public int maxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * Publishes events that were already encoded, in one message, without buffering them.
+     *
+     * @param frames events encoded with {@link MessageCodec#encode(Object)}
+     * @return future completed when the transport accepts the message
+     */
+    public CompletableFuture<Void> publish(List<byte[]> frames) {
+        try {
+            byte[] body = frames.size() == 1 ? frames.get(0) : codec.encodeBatch(frames);
+            return transport.publish(Constants.Queues.EVENTS, body);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Publishes the buffered events, waiting a while for the queued batches to be handed to the
+     * transport, and stops the linger timer and the publishing thread.
+     */
     @Override
-    public void close() throws Exception {
-        channel.close();
-        connection.close();
+    public void close() {
+        if (timer == null) {
+            return;
+        }
+        synchronized (lock) {
+            closed = true;
+            if (!pending.isEmpty()) {
+                handOff(drain());
+            }
+        }
+        timer.shutdownNow();
+        publisher.shutdown();
+        try {
+            if (!publisher.awaitTermination(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Closed the event dispatcher with {} batches left to publish", queuedBatches.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Pending(byte[] frame, CompletableFuture<Void> future) {
     }
 }
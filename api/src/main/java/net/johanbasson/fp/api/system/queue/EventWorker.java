@@ -1,64 +1,71 @@
 package net.johanbasson.fp.api.system.queue;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.eventbus.EventBus;
-import com.rabbitmq.client.*;
-import net.johanbasson.fp.api.config.Configuration;
+import com.google.common.eventbus.SubscriberExceptionContext;
 import net.johanbasson.fp.api.system.Constants;
-import org.msgpack.jackson.dataformat.MessagePackFactory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.concurrent.TimeoutException;
+import java.util.List;
 
+/**
+ * Consumes events from the event queue and posts them to {@code subscribers}. Events that can't be
+ * decoded are dead-lettered, those a subscriber fails to handle are retried according to the
+ * {@link RetryPolicy}. A batch is retried as a whole, so its events that were handled are handled again.
+ *
+ * <p>Events are posted on the consumer's thread through an {@link EventBus} of the worker's own,
+ * whose exception handler hands subscriber failures back to the worker, as an {@link EventBus}
+ * only logs them. A message is acknowledged once every subscriber has handled its events.
+ */
 public class EventWorker implements AutoCloseable {
 
-    private static final Logger log = LoggerFactory.getLogger(EventWorker.class);
-    private final Connection connection;
-    private final Channel channel;
     private final EventBus eventBus;
-    private final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
+    private final ThreadLocal<Throwable> failure = new ThreadLocal<>();
+    private final MessageCodec codec;
+    private final RetryScheduler retries;
+    private final Closeable consumer;
 
-    public EventWorker(Configuration configuration, EventBus eventBus) throws IOException, TimeoutException {
-        this.eventBus = eventBus;
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setHost(configuration.rabbitMq().host());
-        factory.setPort(configuration.rabbitMq().port());
-        factory.setUsername(configuration.rabbitMq().username());
-        factory.setPassword(configuration.rabbitMq().password());
-        connection = factory.newConnection();
-        channel = connection.createChannel();
-        channel.queueDeclare(Constants.Queues.EVENTS, true, false, false, null);
-        start();
+    public EventWorker(Transport transport, MessageCodec codec, List<Object> subscribers, RetryPolicy retryPolicy) throws IOException {
+        this.codec = codec;
+        this.eventBus = new EventBus(this::subscriberFailed);
+        subscribers.forEach(eventBus::register);
+        transport.declare(Constants.Queues.EVENTS);
+        transport.declareDeadLetter(Constants.Queues.EVENTS_DEAD_LETTER);
+        retries = new RetryScheduler(transport, Constants.Queues.EVENTS_DEAD_LETTER, retryPolicy);
+        consumer = transport.consume(Constants.Queues.EVENTS, this::handle);
     }
 
-    private void start() throws IOException {
-        DefaultConsumer consumer = new DefaultConsumer(channel) {
-            @Override
-            public void handleDelivery(
-                    String consumerTag,
-                    Envelope envelope,
-                    AMQP.BasicProperties properties,
-                    byte[] body) throws IOException {
-
-                try {
-                    EventEnvelope eventEnvelope = objectMapper.readValue(body, EventEnvelope.class);
-                    Object command = objectMapper.readValue(eventEnvelope.getBody(), Class.forName(eventEnvelope.getClazz()));
-                    eventBus.post(command);
-                } catch (ClassNotFoundException e) {
-                    log.error("Unable to deserialize event envelope", e);
-                    throw new IOException("Unable to process message - " + e.getLocalizedMessage());
-                }
-
+    private void handle(Delivery delivery) {
+        List<Object> events;
+        try {
+            events = codec.decodeAll(delivery.body());
+        } catch (IOException e) {
+            retries.deadLetter(Constants.Queues.EVENTS, delivery, e);
+            return;
+        }
+        for (Object event : events) {
+            eventBus.post(event);
+            Throwable failed = failure.get();
+            if (failed != null) {
+                failure.remove();
+                retries.retry(Constants.Queues.EVENTS, delivery, failed);
+                return;
             }
-        };
-        channel.basicConsume(Constants.Queues.COMMANDS, true, consumer);
+        }
+        delivery.ack();
+    }
+
+    private void subscriberFailed(Throwable exception, SubscriberExceptionContext context) {
+        Throwable failed = failure.get();
+        if (failed == null) {
+            failure.set(exception);
+        } else {
+            failed.addSuppressed(exception);
+        }
     }
 
     @Override
-    public void close() throws Exception {
-        channel.close();
-        connection.close();
+    public void close() throws IOException {
+        consumer.close();
     }
 }
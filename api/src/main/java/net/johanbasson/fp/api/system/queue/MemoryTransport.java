@@ -0,0 +1,304 @@
+package net.johanbasson.fp.api.system.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Keeps queues in process, for single-node deployments and tests. Messages are lost when the
+ * process stops.
+ *
+ * <p>Each queue is a {@link RingBuffer}. Publishing waits while it is full, and fails once it
+ * stayed full for the publish timeout. A dead-letter queue has no consumer in the process, so
+ * instead it drops its oldest message to make room. Each queue has one consumer thread, which
+ * hands every message it can take to the consumer in one pass, up to {@code prefetch} unsettled
+ * messages, and parks when there is nothing it may take. A queue takes a single consumer, so every
+ * queue has a single active consumer. Delayed messages are published by a timer thread once their
+ * delay has passed, and put off again while their queue is full.
+ */
+public class MemoryTransport implements Transport {
+
+    private static final Logger log = LoggerFactory.getLogger(MemoryTransport.class);
+    private static final long PUBLISH_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long DELAY_BACKOFF_MILLIS = 10;
+    private static final Duration PUBLISH_TIMEOUT = Duration.ofSeconds(5);
+
+    private final int bufferSize;
+    private final int prefetch;
+    private final long publishTimeoutNanos;
+    private final ConcurrentMap<String, MemoryQueue> queues = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService delays = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "memory-transport-delays");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+
+    public MemoryTransport(int bufferSize, int prefetch) {
+        this(bufferSize, prefetch, PUBLISH_TIMEOUT);
+    }
+
+    /**
+     * @param publishTimeout how long a publish waits for room in a full queue before it fails
+     */
+    public MemoryTransport(int bufferSize, int prefetch, Duration publishTimeout) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException(format("Prefetch must be at least 1, got %d", prefetch));
+        }
+        if (publishTimeout.isNegative()) {
+            throw new IllegalArgumentException(format("Publish timeout can't be negative, got %s", publishTimeout));
+        }
+        this.bufferSize = bufferSize;
+        this.prefetch = prefetch;
+        this.publishTimeoutNanos = publishTimeout.toNanos();
+    }
+
+    @Override
+    public void declare(String queue, boolean singleActiveConsumer) {
+        queue(queue);
+    }
+
+    @Override
+    public void declareDeadLetter(String queue) {
+        queue(queue).deadLetter = true;
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(String queue, byte[] body, Map<String, Object> headers) {
+        return queue(queue).publish(new Message(body, Map.copyOf(headers)));
+    }
+
+    @Override
+    public CompletableFuture<Void> publishDelayed(String queue, byte[] body, Map<String, Object> headers, Duration delay) {
+        if (delay.toMillis() <= 0) {
+            return publish(queue, body, headers);
+        }
+        try {
+            publishLater(queue(queue), new Message(body, Map.copyOf(headers)), delay.toMillis());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IOException(format("Transport closed, unable to publish to %s", queue), e));
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void publishLater(MemoryQueue queue, Message message, long delayMillis) {
+        delays.schedule(() -> {
+            if (!queue.offer(message) && !closed) {
+                publishLater(queue, message, DELAY_BACKOFF_MILLIS);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Closeable consume(String queue, Consumer<Delivery> consumer) {
+        return queue(queue).subscribe(consumer);
+    }
+
+    /**
+     * @return number of messages waiting in the queue
+     */
+    int depth(String queue) {
+        return queue(queue).depth();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        delays.shutdownNow();
+        queues.values().forEach(MemoryQueue::stop);
+    }
+
+    private MemoryQueue queue(String name) {
+        return queues.computeIfAbsent(name, MemoryQueue::new);
+    }
+
+    private final class MemoryQueue {
+        private final String name;
+        private final RingBuffer<Message> buffer = new RingBuffer<>(bufferSize);
+        private final Queue<Message> redeliveries = new ConcurrentLinkedQueue<>();
+        private final Semaphore unsettled = new Semaphore(prefetch);
+        private final AtomicBoolean subscribed = new AtomicBoolean();
+        private volatile Thread consumerThread;
+        private volatile boolean parked;
+        private volatile boolean running = true;
+        private volatile boolean deadLetter;
+        private long dropped;
+
+        MemoryQueue(String name) {
+            this.name = name;
+        }
+
+        CompletableFuture<Void> publish(Message message) {
+            long deadline = System.nanoTime() + publishTimeoutNanos;
+            while (!offer(message)) {
+                if (closed) {
+                    return CompletableFuture.failedFuture(new IOException(format("Transport closed, unable to publish to %s", name)));
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    return CompletableFuture.failedFuture(new IOException(format("Queue %s stayed full for %d ms", name,
+                            TimeUnit.NANOSECONDS.toMillis(publishTimeoutNanos))));
+                }
+                LockSupport.parkNanos(this, PUBLISH_BACKOFF_NANOS);
+                if (Thread.currentThread().isInterrupted()) {
+                    return CompletableFuture.failedFuture(new IOException(format("Interrupted waiting for room in %s", name)));
+                }
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+
+        /**
+         * @return false if the queue is full
+         */
+        boolean offer(Message message) {
+            while (!buffer.offer(message)) {
+                if (!deadLetter) {
+                    return false;
+                }
+                if (buffer.poll() != null) {
+                    droppedOldest();
+                }
+            }
+            wakeConsumer();
+            return true;
+        }
+
+        private synchronized void droppedOldest() {
+            dropped++;
+            if (Long.bitCount(dropped) == 1) {
+                log.warn("Dead-letter queue {} is full, dropped its oldest message, {} so far", name, dropped);
+            }
+        }
+
+        Closeable subscribe(Consumer<Delivery> consumer) {
+            if (!subscribed.compareAndSet(false, true)) {
+                throw new IllegalStateException(format("Queue %s already has a consumer", name));
+            }
+            Thread thread = new Thread(() -> consumeLoop(consumer), "memory-transport-" + name);
+            thread.setDaemon(true);
+            consumerThread = thread;
+            thread.start();
+            return this::stop;
+        }
+
+        int depth() {
+            return buffer.size() + redeliveries.size();
+        }
+
+        void stop() {
+            running = false;
+            wakeConsumer();
+        }
+
+        private void consumeLoop(Consumer<Delivery> consumer) {
+            while (running) {
+                if (deliverAvailable(consumer) > 0) {
+                    continue;
+                }
+                parked = true;
+                if (running && (depth() == 0 || unsettled.availablePermits() == 0)) {
+                    LockSupport.parkNanos(this, IDLE_NANOS);
+                }
+                parked = false;
+            }
+        }
+
+        private int deliverAvailable(Consumer<Delivery> consumer) {
+            int delivered = 0;
+            while (running && unsettled.tryAcquire()) {
+                Message message = redeliveries.poll();
+                if (message == null) {
+                    message = buffer.poll();
+                }
+                if (message == null) {
+                    unsettled.release();
+                    break;
+                }
+                deliver(consumer, new MemoryDelivery(this, message));
+                delivered++;
+            }
+            return delivered;
+        }
+
+        private void deliver(Consumer<Delivery> consumer, MemoryDelivery delivery) {
+            try {
+                consumer.accept(delivery);
+            } catch (RuntimeException e) {
+                log.error("Consumer of {} failed", name, e);
+                delivery.reject(false);
+            }
+        }
+
+        private void settled(Message message, boolean requeue) {
+            if (requeue) {
+                redeliveries.add(message);
+            }
+            unsettled.release();
+            wakeConsumer();
+        }
+
+        private void wakeConsumer() {
+            Thread thread = consumerThread;
+            if (thread != null && parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private record Message(byte[] body, Map<String, Object> headers) {
+    }
+
+    private static final class MemoryDelivery implements Delivery {
+        private final MemoryQueue queue;
+        private final Message message;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        MemoryDelivery(MemoryQueue queue, Message message) {
+            this.queue = queue;
+            this.message = message;
+        }
+
+        @Override
+        public byte[] body() {
+            return message.body();
+        }
+
+        @Override
+        public Map<String, Object> headers() {
+            return message.headers();
+        }
+
+        @Override
+        public void ack() {
+            if (settled.compareAndSet(false, true)) {
+                queue.settled(message, false);
+            }
+        }
+
+        @Override
+        public void reject(boolean requeue) {
+            if (settled.compareAndSet(false, true)) {
+                queue.settled(message, requeue);
+            }
+        }
+    }
+}
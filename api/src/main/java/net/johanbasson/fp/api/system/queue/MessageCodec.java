@@ -0,0 +1,337 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.lang.String.format;
+
+/**
+ * Encodes commands and events into single framed messages, and decodes them.
+ *
+ * <p>A frame is a fixed header followed by the msgpack encoded message:
+ * <pre>
+ *   magic     1 byte   0xC1, never the first byte of a msgpack value
+ *   version   1 byte
+ *   flags     2 bytes  bit 0: payload is zstd compressed, bit 1: payload is a batch
+ *   type id   4 bytes  id assigned by the {@link MessageTypeRegistry}, 0 for batches
+ *   length    4 bytes  length of the payload
+ *   [type name length 2 bytes, type name UTF-8]  only for type id 0 of a single message, unregistered types
+ *   payload   length bytes
+ * </pre>
+ *
+ * <p>The payload of a batch is a 4 byte count followed by that many frames, each preceded by
+ * its 4 byte length. Batches are read with {@link #decodeAll(byte[])}.
+ *
+ * <p>Messages are encoded once, straight into a pooled buffer, and decoded in place from the
+ * received bytes. Messages without the magic byte are read as the previous format: a msgpack
+ * envelope holding the type name and the separately encoded message.
+ *
+ * <p>Payloads of at least {@code compressionThreshold} bytes are compressed with zstd, if that makes
+ * them smaller. Compression contexts are pooled and reused across messages.
+ */
+public final class MessageCodec {
+
+    static final byte MAGIC = (byte) 0xC1;
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = 12;
+    static final short FLAG_COMPRESSED = 1;
+    static final short FLAG_BATCH = 2;
+
+    private static final int FLAGS_OFFSET = 2;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int COMPRESSION_LEVEL = 3;
+    private static final int MAX_DECOMPRESSED_LENGTH = 64 << 20;
+
+    private final MessageTypeRegistry types;
+    private final int compressionThreshold;
+    private final BufferPool buffers = new BufferPool(4096, 1 << 20, 256);
+    private final Queue<ZstdCompressCtx> compressors = new ConcurrentLinkedQueue<>();
+    private final Queue<ZstdDecompressCtx> decompressors = new ConcurrentLinkedQueue<>();
+
+    public MessageCodec(MessageTypeRegistry types) {
+        this(types, 0);
+    }
+
+    /**
+     * @param compressionThreshold payload size from which messages are compressed, 0 to never compress
+     */
+    public MessageCodec(MessageTypeRegistry types, int compressionThreshold) {
+        if (compressionThreshold < 0) {
+            throw new IllegalArgumentException(format("Compression threshold must not be negative, got %d", compressionThreshold));
+        }
+        this.types = types;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public byte[] encode(Object message) throws IOException {
+        MessageTypeRegistry.MessageType type = types.forClass(message.getClass());
+        ByteBuffer buffer = buffers.acquire();
+        try {
+            buffer = writeHeader(buffer, type);
+            int payloadStart = buffer.position();
+            BufferOutputStream out = new BufferOutputStream(buffer);
+            type.writer().writeValue(out, message);
+            buffer = finish(out.buffer, payloadStart);
+
+            byte[] frame = new byte[buffer.position()];
+            buffer.flip().get(frame);
+            return frame;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * @param frames messages encoded with {@link #encode(Object)}
+     * @return one frame carrying all of {@code frames}
+     */
+    public byte[] encodeBatch(List<byte[]> frames) {
+        ByteBuffer buffer = BufferPool.ensureRemaining(buffers.acquire(), HEADER_LENGTH + 4);
+        try {
+            buffer.put(MAGIC)
+                    .put(VERSION)
+                    .putShort(FLAG_BATCH)
+                    .putInt(MessageTypeRegistry.UNREGISTERED)
+                    .putInt(0);
+            int payloadStart = buffer.position();
+            buffer.putInt(frames.size());
+            for (byte[] frame : frames) {
+                buffer = BufferPool.ensureRemaining(buffer, 4 + frame.length);
+                buffer.putInt(frame.length)
+                        .put(frame);
+            }
+            buffer = finish(buffer, payloadStart);
+
+            byte[] batch = new byte[buffer.position()];
+            buffer.flip().get(batch);
+            return batch;
+        } finally {
+            buffers.release(buffer);
+        }
+    }
+
+    /**
+     * @throws IOException if {@code body} can't be decoded or is a batch
+     */
+    public Object decode(byte[] body) throws IOException {
+        if (body.length == 0 || body[0] != MAGIC) {
+            return decodeEnvelope(body);
+        }
+        List<Object> messages = new ArrayList<>(1);
+        decodeFrame(body, 0, body.length, messages);
+        if (messages.size() != 1) {
+            throw new IOException(format("Expected a single message but got a batch of %d", messages.size()));
+        }
+        return messages.get(0);
+    }
+
+    /**
+     * @return the messages of a batch, or the single message {@code body} holds
+     */
+    public List<Object> decodeAll(byte[] body) throws IOException {
+        if (body.length == 0 || body[0] != MAGIC) {
+            return List.of(decodeEnvelope(body));
+        }
+        List<Object> messages = new ArrayList<>();
+        decodeFrame(body, 0, body.length, messages);
+        return messages;
+    }
+
+    private void decodeFrame(byte[] body, int offset, int length, List<Object> messages) throws IOException {
+        if (length < HEADER_LENGTH) {
+            throw new IOException(format("Message of %d bytes is shorter than a frame header", length));
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(body, offset, length);
+        if (frame.get() != MAGIC) {
+            throw new IOException("Message is not a frame");
+        }
+        byte version = frame.get();
+        if (version != VERSION) {
+            throw new IOException(format("Unsupported message version %d", version));
+        }
+        short flags = frame.getShort();
+        if ((flags & ~(FLAG_COMPRESSED | FLAG_BATCH)) != 0) {
+            throw new IOException(format("Unsupported message flags %x", flags));
+        }
+        int typeId = frame.getInt();
+        int payloadLength = frame.getInt();
+        MessageTypeRegistry.MessageType type = null;
+        if ((flags & FLAG_BATCH) == 0) {
+            type = typeId == MessageTypeRegistry.UNREGISTERED
+                    ? readTypeName(frame)
+                    : types.forId(typeId);
+            if (type == null) {
+                throw new IOException(format("Unknown message type id %d", typeId));
+            }
+        }
+
+        if (frame.remaining() != payloadLength) {
+            throw new IOException(format("Message declares a payload of %d bytes but has %d", payloadLength, frame.remaining()));
+        }
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            decompress(type, body, frame.position(), payloadLength, messages);
+        } else {
+            readPayload(type, body, frame.position(), payloadLength, messages);
+        }
+    }
+
+    /**
+     * @param type type of the message, or null if the payload is a batch
+     */
+    private void readPayload(MessageTypeRegistry.MessageType type, byte[] payload, int offset, int length, List<Object> messages) throws IOException {
+        if (type != null) {
+            messages.add(type.reader().readValue(payload, offset, length));
+            return;
+        }
+
+        ByteBuffer batch = ByteBuffer.wrap(payload, offset, length);
+        if (batch.remaining() < 4) {
+            throw new IOException("Batch is too short to hold its count");
+        }
+        int count = batch.getInt();
+        for (int i = 0; i < count; i++) {
+            if (batch.remaining() < 4) {
+                throw new IOException(format("Batch declares %d messages but holds %d", count, i));
+            }
+            int frameLength = batch.getInt();
+            if (frameLength < 0 || frameLength > batch.remaining()) {
+                throw new IOException(format("Message %d of the batch exceeds the batch", i));
+            }
+            decodeFrame(payload, batch.position(), frameLength, messages);
+            batch.position(batch.position() + frameLength);
+        }
+    }
+
+    /**
+     * Compresses the payload if it is large enough, and writes its length into the header.
+     */
+    private ByteBuffer finish(ByteBuffer buffer, int payloadStart) {
+        int payloadLength = buffer.position() - payloadStart;
+        if (compressionThreshold > 0 && payloadLength >= compressionThreshold) {
+            buffer = compress(buffer, payloadStart, payloadLength);
+        }
+        return buffer.putInt(LENGTH_OFFSET, buffer.position() - payloadStart);
+    }
+
+    /**
+     * @return frame with the payload compressed, or {@code frame} itself if compressing doesn't make it smaller
+     */
+    private ByteBuffer compress(ByteBuffer frame, int payloadStart, int payloadLength) {
+        ByteBuffer compressed = BufferPool.ensureRemaining(buffers.acquire(), payloadStart + payloadLength);
+        ZstdCompressCtx compressor = compressors.poll();
+        if (compressor == null) {
+            compressor = new ZstdCompressCtx().setLevel(COMPRESSION_LEVEL);
+        }
+        try {
+            int size = compressor.compressByteArray(compressed.array(), payloadStart, payloadLength - 1, frame.array(), payloadStart, payloadLength);
+            System.arraycopy(frame.array(), 0, compressed.array(), 0, payloadStart);
+            compressed.position(payloadStart + size);
+            compressed.putShort(FLAGS_OFFSET, (short) (compressed.getShort(FLAGS_OFFSET) | FLAG_COMPRESSED));
+            buffers.release(frame);
+            return compressed;
+        } catch (ZstdException e) {
+            buffers.release(compressed);
+            return frame;
+        } finally {
+            compressors.offer(compressor);
+        }
+    }
+
+    private void decompress(MessageTypeRegistry.MessageType type, byte[] body, int offset, int length, List<Object> messages) throws IOException {
+        long size = Zstd.getFrameContentSize(body, offset, length);
+        if (size < 0 || size > MAX_DECOMPRESSED_LENGTH) {
+            throw new IOException(format("Compressed message declares an invalid size %d", size));
+        }
+        ByteBuffer target = BufferPool.ensureRemaining(buffers.acquire(), (int) size);
+        ZstdDecompressCtx decompressor = decompressors.poll();
+        if (decompressor == null) {
+            decompressor = new ZstdDecompressCtx();
+        }
+        try {
+            int decompressed = decompressor.decompressByteArray(target.array(), 0, (int) size, body, offset, length);
+            readPayload(type, target.array(), 0, decompressed, messages);
+        } catch (ZstdException e) {
+            throw new IOException("Unable to decompress message", e);
+        } finally {
+            decompressors.offer(decompressor);
+            buffers.release(target);
+        }
+    }
+
+    private static ByteBuffer writeHeader(ByteBuffer buffer, MessageTypeRegistry.MessageType type) {
+        byte[] typeName = type.id() == MessageTypeRegistry.UNREGISTERED
+                ? type.type().getName().getBytes(StandardCharsets.UTF_8)
+                : null;
+        buffer = BufferPool.ensureRemaining(buffer, HEADER_LENGTH + (typeName == null ? 0 : 2 + typeName.length));
+        buffer.put(MAGIC)
+                .put(VERSION)
+                .putShort((short) 0)
+                .putInt(type.id())
+                .putInt(0);
+        if (typeName != null) {
+            buffer.putShort((short) typeName.length)
+                    .put(typeName);
+        }
+        return buffer;
+    }
+
+    private MessageTypeRegistry.MessageType readTypeName(ByteBuffer frame) throws IOException {
+        int length = frame.getShort();
+        if (length < 0 || length > frame.remaining()) {
+            throw new IOException("Message type name exceeds the message");
+        }
+        String name = new String(frame.array(), frame.position(), length, StandardCharsets.UTF_8);
+        frame.position(frame.position() + length);
+        MessageTypeRegistry.MessageType type = types.forName(name);
+        if (type == null) {
+            throw new IOException(format("Unknown message type %s", name));
+        }
+        return type;
+    }
+
+    private Object decodeEnvelope(byte[] body) throws IOException {
+        JsonNode envelope = types.objectMapper().readTree(body);
+        if (envelope == null || !envelope.has("body") || !envelope.has("clazz")) {
+            throw new IOException("Message is neither a frame nor an envelope");
+        }
+        String name = envelope.get("clazz").asText();
+        MessageTypeRegistry.MessageType type = types.forName(name);
+        if (type == null) {
+            throw new IOException(format("Unknown message type %s", name));
+        }
+        return type.reader().readValue(envelope.get("body").binaryValue());
+    }
+
+    private static final class BufferOutputStream extends OutputStream {
+        private ByteBuffer buffer;
+
+        BufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer = BufferPool.ensureRemaining(buffer, 1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer = BufferPool.ensureRemaining(buffer, length);
+            buffer.put(bytes, offset, length);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.lang.String.format;
+
+/**
+ * Assigns compact ids to the command and event types sent through the queues, and holds a
+ * prebuilt {@link ObjectReader} and {@link ObjectWriter} for each type.
+ *
+ * <p>Ids are written to every message instead of the type name, so they must stay the same
+ * across releases and nodes: assign them explicitly and never reuse an id for another type.
+ * Id 0 is reserved for messages carrying their type name, which is how types that aren't
+ * registered are sent. Their names are resolved once and cached as well.
+ */
+public final class MessageTypeRegistry {
+
+    static final int UNREGISTERED = 0;
+
+    private final ObjectMapper objectMapper;
+    private volatile MessageType[] byId = new MessageType[16];
+    private final Map<Class<?>, MessageType> registered = new ConcurrentHashMap<>();
+    private final Map<String, MessageType> byName = new ConcurrentHashMap<>();
+    private final ClassValue<MessageType> byClass = new ClassValue<>() {
+        @Override
+        protected MessageType computeValue(Class<?> type) {
+            MessageType messageType = registered.get(type);
+            return messageType != null ? messageType : unregistered(type);
+        }
+    };
+
+    public MessageTypeRegistry(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Registers {@code type} with {@code id}. Register all types before sending or receiving messages.
+     * @throws IllegalArgumentException if the id is not positive, or the id or type is already registered
+     */
+    public MessageTypeRegistry register(int id, Class<?> type) {
+        if (id <= UNREGISTERED) {
+            throw new IllegalArgumentException(format("Message type id of %s must be positive, was %d", type.getName(), id));
+        }
+        if (registered.containsKey(type)) {
+            throw new IllegalArgumentException(format("Message type %s is already registered with id %d", type.getName(), registered.get(type).id()));
+        }
+        if (id < byId.length && byId[id] != null) {
+            throw new IllegalArgumentException(format("Message type id %d is already registered for %s", id, byId[id].type().getName()));
+        }
+
+        if (id >= byId.length) {
+            byId = Arrays.copyOf(byId, Math.max(byId.length * 2, id + 1));
+        }
+        MessageType messageType = new MessageType(id, type, objectMapper.readerFor(type), objectMapper.writerFor(type));
+        byId[id] = messageType;
+        registered.put(type, messageType);
+        byName.put(type.getName(), messageType);
+        return this;
+    }
+
+    ObjectMapper objectMapper() {
+        return objectMapper;
+    }
+
+    MessageType forClass(Class<?> type) {
+        return byClass.get(type);
+    }
+
+    MessageType forId(int id) {
+        MessageType[] types = byId;
+        return id > UNREGISTERED && id < types.length ? types[id] : null;
+    }
+
+    MessageType forName(String name) {
+        MessageType messageType = byName.get(name);
+        if (messageType != null) {
+            return messageType;
+        }
+        try {
+            return forClass(Class.forName(name));
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private MessageType unregistered(Class<?> type) {
+        return byName.computeIfAbsent(type.getName(), name -> new MessageType(UNREGISTERED, type, objectMapper.readerFor(type), objectMapper.writerFor(type)));
+    }
+
+    record MessageType(int id, Class<?> type, ObjectReader reader, ObjectWriter writer) {
+    }
+}
@@ -0,0 +1,16 @@
+package net.johanbasson.fp.api.system.queue;
+
+/**
+ * <em>Command</em> that must be executed in order with the other <em>Commands</em> of the same
+ * {@link #partitionKey() key}. The {@link CommandDispatcher} sends every <em>Command</em> of a key to
+ * the same partition queue, which is consumed in order. <em>Commands</em> that aren't partitioned
+ * are spread over the partitions at random.
+ */
+public interface Partitioned {
+
+    /**
+     * @return key of the aggregate the <em>Command</em> changes, with a {@code hashCode} that is the
+     * same in every process, such as a {@link String} or {@link java.util.UUID}
+     */
+    Object partitionKey();
+}
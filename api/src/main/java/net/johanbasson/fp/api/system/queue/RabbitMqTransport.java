@@ -0,0 +1,209 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import net.johanbasson.fp.api.config.Configuration;
+import net.johanbasson.fp.api.config.RabbitMq;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Carries messages through durable RabbitMQ queues on the {@link ConnectionManager}'s connections.
+ *
+ * <p>Messages are published through a {@link ChannelPool}, and a publish completes once the broker
+ * confirms it. Each consumer gets its own channel with a {@code basicQos} prefetch and manual
+ * acknowledgements, which are sent in batches by an {@link AckTracker}.
+ *
+ * <p>Delayed messages wait in a delay queue, with the delay as their expiration, and are
+ * dead-lettered by the broker to their queue once it passes. The broker only expires messages at
+ * the head of a queue, so delays are spread over queues of delays within a power of two of each
+ * other, which keeps a long delay from holding up much shorter ones. A queue has a delay queue
+ * per power of two up to its longest delay.
+ */
+public class RabbitMqTransport implements Transport {
+
+    private static final Logger log = LoggerFactory.getLogger(RabbitMqTransport.class);
+
+    private final RabbitMq settings;
+    private final ConnectionManager connections;
+    private final ChannelPool publishers;
+    private final Set<String> delayQueues = ConcurrentHashMap.newKeySet();
+
+    public RabbitMqTransport(Configuration configuration) throws IOException, TimeoutException {
+        this(configuration.rabbitMq(), new ConnectionManager(configuration));
+    }
+
+    RabbitMqTransport(RabbitMq settings, ConnectionManager connections) throws IOException {
+        this.settings = settings;
+        this.connections = connections;
+        this.publishers = new ChannelPool(connections.publishing(), settings.channelPoolSize(), settings.confirmWindow());
+    }
+
+    @Override
+    public void declare(String queue, boolean singleActiveConsumer) throws IOException {
+        Map<String, Object> arguments = singleActiveConsumer ? Map.of("x-single-active-consumer", true) : null;
+        Channel channel = connections.publishingChannel();
+        try {
+            channel.queueDeclare(queue, true, false, false, arguments);
+        } finally {
+            close(channel);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(String queue, byte[] body, Map<String, Object> headers) {
+        AMQP.BasicProperties properties = headers.isEmpty() ? null : new AMQP.BasicProperties.Builder().headers(headers).build();
+        return publishers.publish("", queue, properties, body);
+    }
+
+    @Override
+    public CompletableFuture<Void> publishDelayed(String queue, byte[] body, Map<String, Object> headers, Duration delay) {
+        long delayMillis = delay.toMillis();
+        if (delayMillis <= 0) {
+            return publish(queue, body, headers);
+        }
+
+        String delayQueue;
+        try {
+            delayQueue = delayQueue(queue, Long.highestOneBit(delayMillis));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .headers(headers.isEmpty() ? null : headers)
+                .expiration(String.valueOf(delayMillis))
+                .build();
+        return publishers.publish("", delayQueue, properties, body);
+    }
+
+    /**
+     * @return name of the queue holding messages for {@code queue} delayed by {@code bucketMillis}
+     * up to twice as long, declared the first time it is used
+     */
+    private String delayQueue(String queue, long bucketMillis) throws IOException {
+        String delayQueue = queue + ".delay." + bucketMillis;
+        if (delayQueues.contains(delayQueue)) {
+            return delayQueue;
+        }
+
+        Map<String, Object> arguments = Map.of(
+                "x-dead-letter-exchange", "",
+                "x-dead-letter-routing-key", queue);
+        Channel channel = connections.publishingChannel();
+        try {
+            channel.queueDeclare(delayQueue, true, false, false, arguments);
+        } finally {
+            close(channel);
+        }
+        delayQueues.add(delayQueue);
+        return delayQueue;
+    }
+
+    @Override
+    public Closeable consume(String queue, Consumer<Delivery> consumer) throws IOException {
+        Channel channel = connections.consumingChannel();
+        channel.basicQos(settings.prefetch());
+        AckTracker acks = new AckTracker(channel, Math.min(settings.ackBatchSize(), settings.prefetch()));
+        channel.basicConsume(queue, false, new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+                long deliveryTag = envelope.getDeliveryTag();
+                acks.delivered(deliveryTag);
+                Map<String, Object> headers = properties == null || properties.getHeaders() == null
+                        ? Collections.emptyMap()
+                        : properties.getHeaders();
+                RabbitMqDelivery delivery = new RabbitMqDelivery(acks, deliveryTag, body, headers);
+                try {
+                    consumer.accept(delivery);
+                } catch (RuntimeException e) {
+                    log.error("Consumer of {} failed", queue, e);
+                    delivery.reject(false);
+                }
+            }
+        });
+        return () -> close(channel);
+    }
+
+    @Override
+    public List<ConnectionHealth> health() {
+        return connections.health();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            publishers.close();
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out closing publishing channels", e);
+        } finally {
+            connections.close();
+        }
+    }
+
+    private static void close(Channel channel) throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (TimeoutException e) {
+            throw new IOException(format("Timed out closing channel %d", channel.getChannelNumber()), e);
+        }
+    }
+
+    private static final class RabbitMqDelivery implements Delivery {
+        private final AckTracker acks;
+        private final long deliveryTag;
+        private final byte[] body;
+        private final Map<String, Object> headers;
+        private final AtomicBoolean settled = new AtomicBoolean();
+
+        RabbitMqDelivery(AckTracker acks, long deliveryTag, byte[] body, Map<String, Object> headers) {
+            this.acks = acks;
+            this.deliveryTag = deliveryTag;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        @Override
+        public byte[] body() {
+            return body;
+        }
+
+        @Override
+        public Map<String, Object> headers() {
+            return headers;
+        }
+
+        @Override
+        public void ack() {
+            if (settled.compareAndSet(false, true)) {
+                acks.acknowledge(deliveryTag);
+            }
+        }
+
+        @Override
+        public void reject(boolean requeue) {
+            if (settled.compareAndSet(false, true)) {
+                acks.reject(deliveryTag, requeue);
+            }
+        }
+    }
+}
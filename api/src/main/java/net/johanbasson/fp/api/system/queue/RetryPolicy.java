@@ -0,0 +1,65 @@
+package net.johanbasson.fp.api.system.queue;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.lang.String.format;
+
+/**
+ * How often, and how far apart, a worker retries a message it failed to handle.
+ *
+ * <p>The delay doubles with every attempt, from {@code initialDelay} up to {@code maxDelay}. Each
+ * delay is then drawn at random from its upper half, so messages that failed together, because
+ * the database went away for instance, don't all come back at the same moment. With an initial
+ * delay of zero messages are retried straight away.
+ */
+public final class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * @param maxAttempts number of times a message is handled before it is dead-lettered, the first time included
+     */
+    public RetryPolicy(int maxAttempts, Duration initialDelay, Duration maxDelay) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException(format("Retry policy requires at least 1 attempt, got %d", maxAttempts));
+        }
+        if (initialDelay.isNegative() || maxDelay.compareTo(initialDelay) < 0) {
+            throw new IllegalArgumentException(format("Retry policy requires 0 <= initial delay <= max delay, got %s and %s", initialDelay, maxDelay));
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayMillis = initialDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt that failed, starting at 1
+     * @return true if the message may be handled again
+     */
+    boolean shouldRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param attempt the attempt that failed, starting at 1
+     * @return how long to wait before the next attempt
+     */
+    public Duration delay(int attempt) {
+        if (initialDelayMillis == 0) {
+            return Duration.ZERO;
+        }
+        int doublings = Math.max(attempt - 1, 0);
+        // shifting by fewer places than the leading zeros, less the sign bit, can't overflow
+        long ceiling = doublings < Long.numberOfLeadingZeros(initialDelayMillis) - 1
+                ? Math.min(initialDelayMillis << doublings, maxDelayMillis)
+                : maxDelayMillis;
+        long floor = ceiling / 2;
+        return Duration.ofMillis(floor + ThreadLocalRandom.current().nextLong(ceiling - floor + 1));
+    }
+}
@@ -0,0 +1,94 @@
+package net.johanbasson.fp.api.system.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Retries a worker's failed deliveries after a {@link RetryPolicy} delay, and moves those that
+ * run out of attempts to a dead-letter queue along with the reason they failed.
+ *
+ * <p>A retry publishes a copy of the message, with its attempt count in the {@value #ATTEMPT_HEADER}
+ * header, that the transport {@link Transport#publishDelayed delays}, so the consumer thread never
+ * waits. The failed delivery is acknowledged as soon as the transport has accepted the copy, or
+ * the dead letter, so it doesn't hold up the acknowledgement of later deliveries while it waits:
+ * if the process stops before then, the transport delivers the original again.
+ */
+final class RetryScheduler {
+
+    static final String ATTEMPT_HEADER = "x-attempt";
+    static final String FAILURE_HEADER = "x-failure";
+
+    private static final Logger log = LoggerFactory.getLogger(RetryScheduler.class);
+
+    private final Transport transport;
+    private final String deadLetterQueue;
+    private final RetryPolicy policy;
+
+    RetryScheduler(Transport transport, String deadLetterQueue, RetryPolicy policy) {
+        this.transport = transport;
+        this.deadLetterQueue = deadLetterQueue;
+        this.policy = policy;
+    }
+
+    /**
+     * Puts {@code delivery} back on {@code queue} later, or dead-letters it if it has run out of attempts.
+     */
+    void retry(String queue, Delivery delivery, Throwable failure) {
+        int attempt = attempt(delivery);
+        if (!policy.shouldRetry(attempt)) {
+            deadLetter(queue, delivery, failure);
+            return;
+        }
+
+        Duration delay = policy.delay(attempt);
+        log.warn("Attempt {} of a message on {} failed, retrying in {} ms", attempt, queue, delay.toMillis(), failure);
+        settle(queue, delivery, queue, transport.publishDelayed(queue, delivery.body(), headers(delivery, attempt + 1, failure), delay));
+    }
+
+    /**
+     * Moves {@code delivery} to the dead-letter queue without retrying it.
+     */
+    void deadLetter(String queue, Delivery delivery, Throwable failure) {
+        deadLetter(queue, delivery, attempt(delivery), failure);
+    }
+
+    /**
+     * Moves {@code delivery} to the dead-letter queue after {@code attempts} attempts, for a worker
+     * that retried it in place.
+     */
+    void deadLetter(String queue, Delivery delivery, int attempts, Throwable failure) {
+        log.error("Dead-lettering a message on {} after {} attempts", queue, attempts, failure);
+        settle(queue, delivery, deadLetterQueue, transport.publish(deadLetterQueue, delivery.body(), headers(delivery, attempts, failure)));
+    }
+
+    private static void settle(String queue, Delivery delivery, String target, CompletableFuture<Void> published) {
+        published.whenComplete((accepted, ex) -> {
+            if (ex == null) {
+                delivery.ack();
+            } else {
+                log.error("Unable to move a message from {} to {}, requeueing it", queue, target, ex);
+                delivery.reject(true);
+            }
+        });
+    }
+
+    private static Map<String, Object> headers(Delivery delivery, int attempt, Throwable failure) {
+        Map<String, Object> headers = new HashMap<>(delivery.headers());
+        headers.put(ATTEMPT_HEADER, attempt);
+        headers.put(FAILURE_HEADER, String.valueOf(failure));
+        return headers;
+    }
+
+    /**
+     * @return the attempt this delivery is, starting at 1
+     */
+    static int attempt(Delivery delivery) {
+        Object attempt = delivery.headers().get(ATTEMPT_HEADER);
+        return attempt instanceof Number number ? Math.max(1, number.intValue()) : 1;
+    }
+}
@@ -0,0 +1,72 @@
+package net.johanbasson.fp.api.system.queue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Carries encoded messages from the dispatchers to the workers through named queues.
+ *
+ * <p>{@link RabbitMqTransport} goes through the broker, {@link MemoryTransport} stays inside the
+ * process. Both hand each message to one consumer of its queue, which settles it with
+ * {@link Delivery#ack()} or {@link Delivery#reject(boolean)}, and both limit how many unsettled
+ * messages a consumer has at a time.
+ */
+public interface Transport extends AutoCloseable {
+
+    default void declare(String queue) throws IOException {
+        declare(queue, false);
+    }
+
+    /**
+     * @param singleActiveConsumer deliver to one consumer of the queue at a time, keeping the others
+     * on standby, so the queue's messages are consumed in order
+     */
+    void declare(String queue, boolean singleActiveConsumer) throws IOException;
+
+    /**
+     * Declares a queue that collects the messages that couldn't be handled. Nothing in the
+     * application consumes it, so a transport may bound how many of them it keeps.
+     */
+    default void declareDeadLetter(String queue) throws IOException {
+        declare(queue);
+    }
+
+    default CompletableFuture<Void> publish(String queue, byte[] body) {
+        return publish(queue, body, Collections.emptyMap());
+    }
+
+    /**
+     * @param headers delivered with the message, values must be strings or numbers
+     * @return future completed once the transport has accepted the message, or completed
+     * exceptionally if it couldn't
+     */
+    CompletableFuture<Void> publish(String queue, byte[] body, Map<String, Object> headers);
+
+    /**
+     * Publishes a message that is delivered to {@code queue} once {@code delay} has passed. The
+     * transport holds the message meanwhile, so the returned future completes as soon as it has
+     * accepted the message, not once it is delivered.
+     */
+    CompletableFuture<Void> publishDelayed(String queue, byte[] body, Map<String, Object> headers, Duration delay);
+
+    /**
+     * @return handle that stops the consumer when closed
+     */
+    Closeable consume(String queue, Consumer<Delivery> consumer) throws IOException;
+
+    /**
+     * @return health of the connections the transport depends on, if any
+     */
+    default List<ConnectionHealth> health() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,79 @@
+package net.johanbasson.fp.api.system.transaction;
+
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.util.function.Function;
+
+/**
+ * Connection and transaction shared by all repository calls made while executing one <em>Command</em>.
+ *
+ * <p>{@link UnitOfWorkMiddleware} binds a connection with an open transaction to the thread
+ * executing the <em>Command</em>. Repositories get their connection through {@link #withConnection}
+ * or {@link #inTransaction}, which reuse the bound connection, and only open a connection of their
+ * own when called outside of a unit of work.
+ */
+public final class UnitOfWork {
+
+    private static final ThreadLocal<UnitOfWork> current = new ThreadLocal<>();
+
+    private final Sql2o sql2o;
+    private final Connection connection;
+
+    private UnitOfWork(Sql2o sql2o, Connection connection) {
+        this.sql2o = sql2o;
+        this.connection = connection;
+    }
+
+    /**
+     * Runs {@code work} on the connection of the current unit of work, or on a new connection
+     * that is closed afterwards.
+     */
+    public static <T> T withConnection(Sql2o sql2o, Function<Connection, T> work) {
+        Connection bound = bound(sql2o);
+        if (bound != null) {
+            return work.apply(bound);
+        }
+
+        try (Connection con = sql2o.open()) {
+            return work.apply(con);
+        }
+    }
+
+    /**
+     * Runs {@code work} in the transaction of the current unit of work, or in a new transaction
+     * that is committed when {@code work} completes and rolled back when it fails.
+     */
+    public static <T> T inTransaction(Sql2o sql2o, Function<Connection, T> work) {
+        Connection bound = bound(sql2o);
+        if (bound != null) {
+            return work.apply(bound);
+        }
+
+        try (Connection con = sql2o.beginTransaction()) {
+            T result = work.apply(con);
+            con.commit();
+            return result;
+        }
+    }
+
+    /**
+     * @return true if the current thread is executing a <em>Command</em> in a unit of work on {@code sql2o}
+     */
+    public static boolean isActive(Sql2o sql2o) {
+        return bound(sql2o) != null;
+    }
+
+    static void begin(Sql2o sql2o, Connection connection) {
+        current.set(new UnitOfWork(sql2o, connection));
+    }
+
+    static void end() {
+        current.remove();
+    }
+
+    private static Connection bound(Sql2o sql2o) {
+        UnitOfWork unitOfWork = current.get();
+        return unitOfWork != null && unitOfWork.sql2o == sql2o ? unitOfWork.connection : null;
+    }
+}
@@ -0,0 +1,55 @@
+package net.johanbasson.fp.api.system.transaction;
+
+import net.johanbasson.fp.api.system.commandbus.Middleware;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import java.util.function.Function;
+
+/**
+ * Executes each <em>Command</em> in one {@link UnitOfWork}: a single connection and transaction,
+ * committed when the <em>Command</em> completes and rolled back when it fails. Repositories
+ * called by the handler reuse the connection, so a <em>Command</em> checks out one pooled
+ * connection and its writes are atomic.
+ *
+ * <p>A <em>Command</em> executed from within another one joins the outer unit of work.
+ */
+public class UnitOfWorkMiddleware implements Middleware {
+
+    private final Sql2o sql2o;
+
+    public UnitOfWorkMiddleware(Sql2o sql2o) {
+        this.sql2o = sql2o;
+    }
+
+    @Override
+    public <R> R execute(Object command, Function<Object, R> next) {
+        if (UnitOfWork.isActive(sql2o)) {
+            return next.apply(command);
+        }
+
+        Connection connection = sql2o.beginTransaction();
+        UnitOfWork.begin(sql2o, connection);
+        try {
+            R result;
+            try {
+                result = next.apply(command);
+            } catch (Throwable e) {
+                rollback(connection, e);
+                throw e;
+            }
+            connection.commit();
+            return result;
+        } finally {
+            UnitOfWork.end();
+        }
+    }
+
+    private static void rollback(Connection connection, Throwable failure) {
+        try {
+            connection.rollback();
+        } catch (RuntimeException e) {
+            failure.addSuppressed(e);
+        }
+    }
+}
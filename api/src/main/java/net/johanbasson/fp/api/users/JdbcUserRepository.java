@@ -2,7 +2,7 @@ package net.johanbasson.fp.api.users;
 
 import cyclops.control.Maybe;
 import cyclops.reactive.IO;
-import org.sql2o.Connection;
+import net.johanbasson.fp.api.system.transaction.UnitOfWork;
 import org.sql2o.Sql2o;
 
 public class JdbcUserRepository implements UserRepository {
@@ -14,12 +14,9 @@ public class JdbcUserRepository implements UserRepository {
     }
 
     public IO<Maybe<User>> findByEmail(String email) {
-        return IO.of(() -> {
-            try (Connection con = sql2o.open()) {
-                return Maybe.ofNullable(con.createQuery("select")
+        return IO.of(() -> UnitOfWork.withConnection(sql2o, con ->
+                Maybe.ofNullable(con.createQuery("select")
                         .addColumnMapping("email", email)
-                        .executeAndFetchFirst(User.class));
-            }
-        });
+                        .executeAndFetchFirst(User.class))));
     }
 }
@@ -1,10 +1,21 @@
 package net.johanbasson.fp.api.workspace;
 
+import net.johanbasson.fp.api.system.commandbus.Idempotent;
+import net.johanbasson.fp.api.system.queue.Partitioned;
 import net.johanbasson.fp.api.types.Description;
 import net.johanbasson.fp.api.types.Identifier;
 import net.johanbasson.fp.api.types.Name;
 import net.johanbasson.fp.api.users.Principal;
 
-public record CreateWorkspaceCommand(Principal principal, Name name, Description description, Identifier id) {
+public record CreateWorkspaceCommand(Principal principal, Name name, Description description, Identifier id) implements Idempotent, Partitioned {
 
+    @Override
+    public String idempotencyKey() {
+        return id.asString();
+    }
+
+    @Override
+    public Object partitionKey() {
+        return id.asString();
+    }
 }
@@ -2,17 +2,21 @@ package net.johanbasson.fp.api.workspace;
 
 import cyclops.control.Maybe;
 import cyclops.reactive.IO;
+import net.johanbasson.fp.api.system.transaction.UnitOfWork;
 import net.johanbasson.fp.api.types.Description;
 import net.johanbasson.fp.api.types.Identifier;
 import net.johanbasson.fp.api.types.Name;
 import net.johanbasson.fp.api.users.Principal;
-import org.sql2o.Connection;
+import org.sql2o.Query;
 import org.sql2o.Sql2o;
 
+import java.util.Arrays;
 import java.util.List;
 
 public class JdbcWorkspaceRepository implements WorkspaceRepository {
 
+    private static final String INSERT = "INSERT INTO workspaces (id, user_id, name, description, created, modified, deleted) VALUES (:id, :user, :name, :desc, now(), now(), false)";
+
     private final Sql2o sql2o;
 
     public JdbcWorkspaceRepository(Sql2o sql2o) {
@@ -21,42 +25,47 @@ public class JdbcWorkspaceRepository implements WorkspaceRepository {
 
     @Override
     public IO<Maybe<Workspace>> findByName(Principal principal, Name name) {
-        return IO.of(() -> {
-            try (Connection con = sql2o.open()) {
-                return
-                        Maybe.ofNullable(
-                                con.createQuery("SELECT id, name, description, created, modified FROM workspaces WHERE user_id = :user AND name = :name")
-                                        .addParameter("user", principal.getId())
-                                        .addParameter("name", name.asString())
-                                        .executeAndFetchFirst(Workspace.class)
-                        );
-            }
-        });
+        return IO.of(() -> UnitOfWork.withConnection(sql2o, con ->
+                Maybe.ofNullable(
+                        con.createQuery("SELECT id, name, description, created, modified FROM workspaces WHERE user_id = :user AND name = :name")
+                                .addParameter("user", principal.getId())
+                                .addParameter("name", name.asString())
+                                .executeAndFetchFirst(Workspace.class)
+                )));
     }
 
     @Override
     public IO<Integer> add(Principal principal, Identifier id, Name name, Description description) {
-        return IO.of(() -> {
-            try (Connection con = sql2o.open()) {
-                return con.createQuery("INSERT INTO workspaces (id, user_id, name, description, created. modified, deleted) VALUES (:id, :user, :name, :desc, now(), now(), false)")
+        return IO.of(() -> UnitOfWork.withConnection(sql2o, con ->
+                con.createQuery(INSERT)
                         .addParameter("id", id.asUUID())
-                        .addParameter("user_id", principal.getId())
-                        .addParameter("name", name)
-                        .addParameter("desc", description)
+                        .addParameter("user", principal.getId())
+                        .addParameter("name", name.asString())
+                        .addParameter("desc", description.asString())
                         .executeUpdate()
-                        .getResult();
+                        .getResult()));
+    }
+
+    @Override
+    public IO<Integer> addAll(List<CreateWorkspaceCommand> commands) {
+        return IO.of(() -> UnitOfWork.inTransaction(sql2o, con -> {
+            Query query = con.createQuery(INSERT);
+            for (CreateWorkspaceCommand command : commands) {
+                query.addParameter("id", command.id().asUUID())
+                        .addParameter("user", command.principal().getId())
+                        .addParameter("name", command.name().asString())
+                        .addParameter("desc", command.description().asString())
+                        .addToBatch();
             }
-        });
+            return Arrays.stream(query.executeBatch().getBatchResult()).sum();
+        }));
     }
 
     @Override
     public IO<List<Workspace>> list(Principal principal) {
-        return IO.of( () -> {
-            try (Connection con = sql2o.open()) {
-                return con.createQuery("SELECT id, name, description, created, modified FROM workspaces WHERE user_id = :user AND deleted = false ORDER BY name")
+        return IO.of(() -> UnitOfWork.withConnection(sql2o, con ->
+                con.createQuery("SELECT id, name, description, created, modified FROM workspaces WHERE user_id = :user AND deleted = false ORDER BY name")
                         .addParameter("user", principal.getId())
-                        .executeAndFetch(Workspace.class);
-            }
-        });
+                        .executeAndFetch(Workspace.class)));
     }
 }
@@ -1,21 +1,42 @@
 package net.johanbasson.fp.api.workspace;
 
+import cyclops.reactive.IO;
+import net.johanbasson.fp.api.system.commandbus.BatchCommandHandler;
 import net.johanbasson.fp.api.system.commandbus.CommandHandler;
-import net.johanbasson.fp.api.system.queue.EventDispatcher;
+import net.johanbasson.fp.api.system.outbox.Outbox;
+
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class WorkspaceCommandHandlers {
 
+    public static final String BULKHEAD = "workspaces";
+
     private final WorkspaceRepository workspaceRepository;
-    private final EventDispatcher eventDispatcher;
+    private final Outbox outbox;
 
-    public WorkspaceCommandHandlers(WorkspaceRepository workspaceRepository, EventDispatcher eventDispatcher) {
+    public WorkspaceCommandHandlers(WorkspaceRepository workspaceRepository, Outbox outbox) {
         this.workspaceRepository = workspaceRepository;
-        this.eventDispatcher = eventDispatcher;
+        this.outbox = outbox;
     }
 
-    @CommandHandler
+    @CommandHandler(bulkhead = BULKHEAD)
     public void handle(CreateWorkspaceCommand command) {
-        workspaceRepository.add(command.principal(), command.id(), command.name(), command.description());
-        eventDispatcher.dispatch(new WorkspaceCreatedEvent(command.principal(), command.id(), command.name(), command.description()));
+        run(workspaceRepository.add(command.principal(), command.id(), command.name(), command.description()));
+        outbox.add(new WorkspaceCreatedEvent(command.principal(), command.id(), command.name(), command.description()));
+    }
+
+    @BatchCommandHandler
+    public void handle(List<CreateWorkspaceCommand> commands) {
+        run(workspaceRepository.addAll(commands));
+        outbox.addAll(commands.stream()
+                .map(command -> new WorkspaceCreatedEvent(command.principal(), command.id(), command.name(), command.description()))
+                .collect(Collectors.toList()));
+    }
+
+    private static <T> T run(IO<T> io) {
+        return io.run().fold(result -> result, error -> {
+            throw new IllegalStateException("Unable to store workspaces", error);
+        });
     }
 }
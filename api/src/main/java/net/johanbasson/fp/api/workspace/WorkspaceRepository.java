@@ -15,5 +15,7 @@ public interface WorkspaceRepository {
 
     IO<Integer> add(Principal principal, Identifier id, Name name, Description description);
 
+    IO<Integer> addAll(List<CreateWorkspaceCommand> commands);
+
     IO<List<Workspace>> list(Principal principal);
 }
@@ -0,0 +1,9 @@
+CREATE TABLE idempotency_keys (
+    key         VARCHAR(512) PRIMARY KEY,
+    completed   BOOLEAN NOT NULL,
+    result_type VARCHAR(255),
+    result      TEXT,
+    created     TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idempotency_keys_created_idx ON idempotency_keys(created);
@@ -0,0 +1,9 @@
+CREATE TABLE outbox (
+    id              BIGSERIAL PRIMARY KEY,
+    payload         BYTEA NOT NULL,
+    attempts        INT NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMP NOT NULL,
+    created         TIMESTAMP NOT NULL
+);
+
+CREATE INDEX outbox_next_attempt_at_idx ON outbox(next_attempt_at, id);
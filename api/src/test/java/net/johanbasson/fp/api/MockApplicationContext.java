@@ -7,13 +7,18 @@ import net.johanbasson.fp.api.config.Database;
 import net.johanbasson.fp.api.config.RabbitMq;
 import net.johanbasson.fp.api.config.Server;
 import net.johanbasson.fp.api.system.ApplicationContext;
+import net.johanbasson.fp.api.system.commandbus.CoalescingMiddleware;
 import net.johanbasson.fp.api.system.commandbus.CommandBus;
+import net.johanbasson.fp.api.system.commandbus.MetricsMiddleware;
+import net.johanbasson.fp.api.system.queue.ConnectionHealth;
 import net.johanbasson.fp.api.users.UserRepository;
 import net.johanbasson.fp.api.workspace.WorkspaceRepository;
 import org.sql2o.Sql2o;
 
 import javax.crypto.SecretKey;
 import java.security.Key;
+import java.util.Collections;
+import java.util.List;
 
 import static org.mockito.Mockito.mock;
 
@@ -25,6 +30,8 @@ public class MockApplicationContext implements ApplicationContext {
     private final WorkspaceRepository workspaceRepository = mock(WorkspaceRepository.class);
     private final Sql2o sql2o = mock(Sql2o.class);
     private final CommandBus commandBus = mock(CommandBus.class);
+    private final MetricsMiddleware commandMetrics = new MetricsMiddleware();
+    private final CoalescingMiddleware commandCoalescing = new CoalescingMiddleware();
 
     @Override
     public Sql2o getSql2o() {
@@ -45,6 +52,21 @@ public class MockApplicationContext implements ApplicationContext {
         return commandBus;
     }
 
+    @Override
+    public MetricsMiddleware getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    @Override
+    public CoalescingMiddleware getCommandCoalescing() {
+        return commandCoalescing;
+    }
+
+    @Override
+    public List<ConnectionHealth> getQueueHealth() {
+        return Collections.emptyList();
+    }
+
     @Override
     public UserRepository getUserRepository() {
         return userRepository;
@@ -0,0 +1,102 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BulkheadTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private String blocking() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Thread.currentThread().getName();
+    }
+
+    @Test
+    public void queuesAndRejectsBeyondLimits() throws Exception {
+        // GIVEN
+        Bulkhead bulkhead = new Bulkhead("slow", 1, 1, Bulkhead.RejectionPolicy.ABORT);
+
+        // WHEN
+        CompletableFuture<String> running = bulkhead.submit(this::blocking, executor);
+        CompletableFuture<String> queued = bulkhead.submit(this::blocking, executor);
+        CompletableFuture<String> rejected = bulkhead.submit(this::blocking, executor);
+
+        // THEN
+        assertThat(bulkhead.activeCount()).isEqualTo(1);
+        assertThat(bulkhead.queueDepth()).isEqualTo(1);
+        assertThat(rejected).isCompletedExceptionally();
+        assertThat(rejected.handle((result, error) -> error).get()).isInstanceOf(CommandRejectedException.class);
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        assertThat(bulkhead.activeCount()).isZero();
+        assertThat(bulkhead.queueDepth()).isZero();
+    }
+
+    @Test
+    public void callerRunsWhenFull() throws ExecutionException, InterruptedException {
+        // GIVEN
+        Bulkhead bulkhead = new Bulkhead("slow", 1, 0, Bulkhead.RejectionPolicy.CALLER_RUNS);
+        bulkhead.submit(this::blocking, executor);
+
+        // WHEN
+        CompletableFuture<String> callerRuns = bulkhead.submit(() -> Thread.currentThread().getName(), executor);
+
+        // THEN
+        assertThat(callerRuns.get()).isEqualTo(Thread.currentThread().getName());
+    }
+
+    @Test
+    public void blockedCallerTimesOut() throws Exception {
+        // GIVEN
+        Bulkhead bulkhead = new Bulkhead("slow", 1, 0, Bulkhead.RejectionPolicy.BLOCK, Duration.ofMillis(50));
+        bulkhead.submit(this::blocking, executor);
+
+        // WHEN
+        long start = System.nanoTime();
+        CompletableFuture<String> timedOut = bulkhead.submit(() -> "late", executor);
+
+        // THEN
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(timedOut.handle((result, error) -> error).get()).isInstanceOf(CommandRejectedException.class);
+    }
+
+    @Test
+    public void blockedCallerIsAdmittedWhenRoomFrees() throws Exception {
+        // GIVEN
+        Bulkhead bulkhead = new Bulkhead("slow", 1, 0, Bulkhead.RejectionPolicy.BLOCK, Duration.ofSeconds(5));
+        bulkhead.submit(this::blocking, executor);
+
+        // WHEN
+        CompletableFuture<CompletableFuture<String>> blocked = CompletableFuture.supplyAsync(
+                () -> bulkhead.submit(() -> "admitted", executor), executor);
+        Thread.sleep(50);
+        release.countDown();
+
+        // THEN
+        assertThat(blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS)).isEqualTo("admitted");
+    }
+}
@@ -0,0 +1,77 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CoalescingMiddlewareTest {
+
+    record ListItems(String owner) implements Coalescable {
+
+        @Override
+        public Object coalescingKey() {
+            return owner;
+        }
+    }
+
+    public static class Handlers {
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @CommandHandler
+        public String handle(ListItems command) throws InterruptedException {
+            executions.incrementAndGet();
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return "items of " + command.owner();
+        }
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentIdenticalCommandsShareOneExecution() throws Exception {
+        // GIVEN
+        Handlers handlers = new Handlers();
+        CoalescingMiddleware coalescing = new CoalescingMiddleware();
+        CommandBus bus = new CommandBusBuilder()
+                .registerMiddleware(coalescing)
+                .registerCommandHandler(handlers)
+                .executorService(executor)
+                .build();
+
+        // WHEN
+        CompletableFuture<String> first = bus.executeAsync(new ListItems("john"));
+        handlers.started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> second = bus.executeAsync(new ListItems("john"));
+        while (coalescing.coalescedCount() == 0) {
+            Thread.sleep(1);
+        }
+        handlers.release.countDown();
+
+        // THEN
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("items of john");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("items of john");
+        assertThat(handlers.executions).hasValue(1);
+        assertThat(coalescing.executedCount()).isEqualTo(1);
+        assertThat(coalescing.coalescedCount()).isEqualTo(1);
+
+        String later = bus.execute(new ListItems("john"));
+        assertThat(later).isEqualTo("items of john");
+        assertThat(handlers.executions).hasValue(2);
+    }
+}
@@ -0,0 +1,554 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CommandBusTest {
+
+    record Greet(String name) { }
+
+    record Shout(String name) { }
+
+    record Fail(RuntimeException error) { }
+
+    record FailChecked() { }
+
+    public static class Handlers {
+
+        @CommandHandler
+        public String handle(Greet command, String greeting) {
+            return greeting + " " + command.name();
+        }
+
+        @CommandHandler
+        public String handle(Shout command, String greeting, Character suffix, Integer times, Boolean upperCase) {
+            String shout = String.join(",", Collections.nCopies(times, greeting + " " + command.name() + suffix));
+            return upperCase ? shout.toUpperCase() : shout;
+        }
+
+        @CommandHandler
+        public void handle(Fail command) {
+            throw command.error();
+        }
+
+        @CommandHandler
+        public void handle(FailChecked command) throws Exception {
+            throw new Exception("checked");
+        }
+    }
+
+    public static class Providers {
+
+        @Provider
+        public String greeting() {
+            return "Hello";
+        }
+
+        @Provider
+        public Character suffix() {
+            return '!';
+        }
+
+        @Provider
+        public Boolean upperCase() {
+            return Boolean.TRUE;
+        }
+
+        @Provider
+        public Integer times() {
+            return 2;
+        }
+    }
+
+    static final class Resource implements AutoCloseable {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    record UseResources() { }
+
+    record Resources(Resource first, Resource second, StringBuilder shared) { }
+
+    public static class ScopedHandlers {
+
+        @CommandHandler
+        public Resources handle(UseResources command, Resource first, Resource second, StringBuilder shared) {
+            assertThat(first.closed).isFalse();
+            return new Resources(first, second, shared);
+        }
+    }
+
+    public static class ScopedProviders {
+        final AtomicInteger resources = new AtomicInteger();
+        final AtomicInteger builders = new AtomicInteger();
+
+        @Provider(scope = Provider.Scope.PER_COMMAND)
+        public Resource resource() {
+            resources.incrementAndGet();
+            return new Resource();
+        }
+
+        @Provider(scope = Provider.Scope.SINGLETON)
+        public StringBuilder shared() {
+            builders.incrementAndGet();
+            return new StringBuilder();
+        }
+    }
+
+    record UseSession() { }
+
+    static final class Session implements AutoCloseable {
+        final AtomicInteger closed;
+
+        Session(AtomicInteger closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    public static class SessionHandlers {
+
+        @CommandHandler
+        public Session handle(UseSession command, Session session) {
+            return session;
+        }
+    }
+
+    public static class SessionProviders {
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+
+        @Provider(scope = Provider.Scope.PER_THREAD)
+        public Session session() {
+            opened.incrementAndGet();
+            return new Session(closed);
+        }
+    }
+
+    /**
+     * Starts a thread for every task, as a virtual thread per task executor does.
+     */
+    static final class ThreadPerTaskExecutor extends AbstractExecutorService {
+        private volatile boolean shutdown;
+
+        @Override
+        public void execute(Runnable task) {
+            new Thread(task).start();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown = true;
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    record FullName() { }
+
+    public static class NamedHandlers {
+
+        @CommandHandler
+        public String handle(FullName command, String firstName, String lastName) {
+            return firstName + " " + lastName;
+        }
+    }
+
+    public static class NamedProviders {
+
+        @Provider
+        public String firstName() {
+            return "John";
+        }
+
+        @Provider
+        public String lastName() {
+            return "Doe";
+        }
+    }
+
+    private static class ReflectedHandlers {
+
+        @CommandHandler
+        public String handle(Greet command) {
+            return "Reflected " + command.name();
+        }
+    }
+
+    public static class BatchHandlers {
+        final List<Integer> batchSizes = new ArrayList<>();
+
+        @BatchCommandHandler
+        public List<String> handle(List<Greet> commands, String greeting) {
+            batchSizes.add(commands.size());
+            return commands.stream()
+                    .map(command -> greeting + " all, " + command.name())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static class ReflectedBatchHandlers {
+
+        @BatchCommandHandler
+        public List<String> handle(List<Greet> commands) {
+            return Collections.singletonList("Reflected");
+        }
+    }
+
+    interface Polite { }
+
+    interface Loud { }
+
+    record Welcome(String name) implements Polite { }
+
+    record Farewell(String name) implements Polite { }
+
+    record Cheer(String name) implements Polite, Loud { }
+
+    public static class PoliteHandlers {
+
+        @CommandHandler
+        public String handle(Polite command) {
+            return "Polite " + command;
+        }
+
+        @CommandHandler
+        public String handle(Loud command) {
+            return "Loud " + command;
+        }
+
+        @CommandHandler
+        public String handle(Welcome command) {
+            return "Welcome " + command.name();
+        }
+    }
+
+    private CommandBus bus() {
+        return new CommandBusBuilder()
+                .registerCommandHandler(new Handlers())
+                .registerValueProvider(new Providers())
+                .build();
+    }
+
+    @Nested
+    @DisplayName("Execute")
+    class Execute {
+
+        @Test
+        @DisplayName("Resolves provided values")
+        public void providedValues() {
+            String result = bus().execute(new Greet("John"));
+
+            assertThat(result).isEqualTo("Hello John");
+        }
+
+        @Test
+        @DisplayName("Invokes handlers wider than the specialized arities")
+        public void wideHandler() {
+            String result = bus().execute(new Shout("John"));
+
+            assertThat(result).isEqualTo("HELLO JOHN!,HELLO JOHN!");
+        }
+
+        @Test
+        @DisplayName("Unchecked exceptions propagate unchanged")
+        public void uncheckedException() {
+            IllegalArgumentException error = new IllegalArgumentException("boom");
+
+            assertThatThrownBy(() -> bus().execute(new Fail(error))).isSameAs(error);
+        }
+
+        @Test
+        @DisplayName("Checked exceptions are wrapped")
+        public void checkedException() {
+            assertThatThrownBy(() -> bus().execute(new FailChecked()))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasRootCauseMessage("checked");
+        }
+    }
+
+    @Nested
+    @DisplayName("Asynchronous execution")
+    class Async {
+
+        @Test
+        @DisplayName("Runs on the configured executor")
+        public void executor() throws Exception {
+            CommandBus bus = new CommandBusBuilder()
+                    .registerCommandHandler(new Handlers())
+                    .registerValueProvider(new Providers())
+                    .virtualThreads()
+                    .build();
+
+            try {
+                assertThat(bus.<String>executeAsync(new Greet("John")).get(1, TimeUnit.SECONDS)).isEqualTo("Hello John");
+                assertThat(bus.<String>executeIO(new Greet("John")).run().orElse(null)).isEqualTo("Hello John");
+            } finally {
+                bus.close();
+            }
+        }
+
+        @Test
+        @DisplayName("Failures complete the future exceptionally")
+        public void failure() {
+            IllegalArgumentException error = new IllegalArgumentException("boom");
+
+            assertThat(bus().executeAsync(new Fail(error)))
+                    .isCompletedExceptionally()
+                    .failsWithin(Duration.ZERO)
+                    .withThrowableOfType(ExecutionException.class)
+                    .withCause(error);
+        }
+    }
+
+    @Nested
+    @DisplayName("Routing")
+    class Routing {
+
+        @Test
+        @DisplayName("Generated routes resolve same-typed values by parameter name")
+        public void generatedRoutes() {
+            assertThat(GeneratedRoutes.forClass(NamedHandlers.class)).isPresent();
+
+            String result = new CommandBusBuilder()
+                    .registerCommandHandler(new NamedHandlers())
+                    .registerValueProvider(new NamedProviders())
+                    .build()
+                    .execute(new FullName());
+
+            assertThat(result).isEqualTo("John Doe");
+        }
+
+        @Test
+        @DisplayName("Classes without generated routes are scanned with reflection")
+        public void reflectionFallback() {
+            assertThat(GeneratedRoutes.forClass(ReflectedHandlers.class)).isEmpty();
+
+            String result = new CommandBusBuilder()
+                    .registerCommandHandler(new ReflectedHandlers())
+                    .build()
+                    .execute(new Greet("John"));
+
+            assertThat(result).isEqualTo("Reflected John");
+        }
+
+        @Test
+        @DisplayName("Resolves handlers of the closest superclass or interface")
+        public void polymorphicHandlers() {
+            CommandBus bus = new CommandBusBuilder()
+                    .registerCommandHandler(new PoliteHandlers())
+                    .build();
+
+            assertThat(bus.<String>execute(new Welcome("John"))).isEqualTo("Welcome John");
+            assertThat(bus.<String>execute(new Farewell("John"))).isEqualTo("Polite Farewell[name=John]");
+            assertThatThrownBy(() -> bus.execute(new Cheer("John")))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("matches both");
+        }
+    }
+
+    @Nested
+    @DisplayName("Provider scopes")
+    class ProviderScopes {
+
+        private final ScopedProviders providers = new ScopedProviders();
+        private final CommandBus bus = new CommandBusBuilder()
+                .registerCommandHandler(new ScopedHandlers())
+                .registerValueProvider(providers)
+                .build();
+
+        @Test
+        @DisplayName("Command scoped values are shared within a command and closed when it completes")
+        public void perCommand() {
+            Resources first = bus.execute(new UseResources());
+            Resources second = bus.execute(new UseResources());
+
+            assertThat(first.first()).isSameAs(first.second());
+            assertThat(first.first()).isNotSameAs(second.first());
+            assertThat(first.first().closed).isTrue();
+            assertThat(providers.resources).hasValue(2);
+        }
+
+        @Test
+        @DisplayName("Singleton values are resolved once")
+        public void singleton() {
+            Resources first = bus.execute(new UseResources());
+            Resources second = bus.execute(new UseResources());
+
+            assertThat(first.shared()).isSameAs(second.shared());
+            assertThat(providers.builders).hasValue(1);
+        }
+
+        @Test
+        @DisplayName("Per-thread values are closed when a thread per task completes its command")
+        public void perThreadOnThreadPerTask() {
+            SessionProviders sessions = new SessionProviders();
+            CommandBus bus = new CommandBusBuilder()
+                    .registerCommandHandler(new SessionHandlers())
+                    .registerValueProvider(sessions)
+                    .threadPerTaskExecutor(new ThreadPerTaskExecutor())
+                    .build();
+
+            CompletableFuture.allOf(IntStream.range(0, 500)
+                    .mapToObj(i -> bus.executeAsync(new UseSession()))
+                    .toArray(CompletableFuture[]::new))
+                    .join();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sessions.closed.get() < 500 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            assertThat(sessions.closed).hasValue(500);
+            assertThat(sessions.opened).hasValue(500);
+        }
+
+        @Test
+        @DisplayName("Per-thread values of threads that ended are closed")
+        public void perThreadOfEndedThreads() throws InterruptedException {
+            SessionProviders sessions = new SessionProviders();
+            CommandBus bus = new CommandBusBuilder()
+                    .registerCommandHandler(new SessionHandlers())
+                    .registerValueProvider(sessions)
+                    .build();
+
+            for (int i = 0; i < 50; i++) {
+                Thread thread = new Thread(() -> bus.execute(new UseSession()));
+                thread.start();
+                thread.join();
+            }
+            Session session = bus.execute(new UseSession());
+
+            assertThat(sessions.closed).hasValue(50);
+            assertThat(bus.<Session>execute(new UseSession())).isSameAs(session);
+            bus.close();
+            assertThat(sessions.closed).hasValue(51);
+        }
+    }
+
+    @Nested
+    @DisplayName("Batch execution")
+    class Batch {
+
+        @Test
+        @DisplayName("Groups commands by type and returns results in submission order")
+        public void submissionOrder() {
+            // GIVEN
+            BatchHandlers batchHandlers = new BatchHandlers();
+            CommandBus bus = new CommandBusBuilder()
+                    .registerCommandHandler(new Handlers())
+                    .registerCommandHandler(batchHandlers)
+                    .registerValueProvider(new Providers())
+                    .build();
+
+            // WHEN
+            List<String> results = bus.executeBatch(Arrays.asList(new Greet("John"), new Shout("Jane"), new Greet("Jack")));
+
+            // THEN
+            assertThat(results).containsExactly("Hello all, John", "HELLO JANE!,HELLO JANE!", "Hello all, Jack");
+            assertThat(batchHandlers.batchSizes).containsExactly(2);
+        }
+
+        @Test
+        @DisplayName("Fails when a batch handler does not return a result per command")
+        public void resultCount() {
+            CommandBus bus = new CommandBusBuilder()
+                    .registerCommandHandler(new ReflectedBatchHandlers())
+                    .build();
+
+            assertThatThrownBy(() -> bus.executeBatch(Arrays.asList(new Greet("John"), new Greet("Jack"))))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("returned 1 results for 2 commands");
+        }
+    }
+
+    @Nested
+    @DisplayName("Middleware")
+    class Middlewares {
+
+        private Middleware recording(List<String> calls, String name, Class<?> onlyFor) {
+            return new Middleware() {
+                @Override
+                public <R> R execute(Object command, Function<Object, R> next) {
+                    calls.add(name + ".pre");
+                    R result = next.apply(command);
+                    calls.add(name + ".post");
+                    return result;
+                }
+
+                @Override
+                public boolean appliesTo(Class<?> commandType) {
+                    return onlyFor == null || onlyFor == commandType;
+                }
+            };
+        }
+
+        @Test
+        @DisplayName("Runs applicable middleware in registration order")
+        public void applicableMiddleware() {
+            // GIVEN
+            List<String> calls = new ArrayList<>();
+            CommandBus bus = new CommandBusBuilder()
+                    .registerMiddleware(recording(calls, "m1", null))
+                    .registerMiddleware(recording(calls, "m2", Shout.class))
+                    .registerMiddleware(recording(calls, "m3", null))
+                    .registerCommandHandler(new Handlers())
+                    .registerValueProvider(new Providers())
+                    .build();
+
+            // WHEN
+            bus.execute(new Greet("John"));
+            List<String> greetCalls = new ArrayList<>(calls);
+            calls.clear();
+            bus.execute(new Shout("John"));
+
+            // THEN
+            assertThat(greetCalls).containsExactly("m1.pre", "m3.pre", "m3.post", "m1.post");
+            assertThat(calls).containsExactly("m1.pre", "m2.pre", "m3.pre", "m3.post", "m2.post", "m1.post");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IdempotencyMiddlewareTest {
+
+    record Deposit(String key, int amount, boolean fail) implements Idempotent {
+
+        @Override
+        public String idempotencyKey() {
+            return key;
+        }
+    }
+
+    public static class Handlers {
+        final AtomicInteger handled = new AtomicInteger();
+        final List<List<String>> batches = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @CommandHandler
+        public Integer handle(Deposit command) throws InterruptedException {
+            handled.incrementAndGet();
+            if (command.key().equals("slow")) {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            if (command.fail()) {
+                throw new IllegalStateException("declined");
+            }
+            return command.amount();
+        }
+
+        @BatchCommandHandler
+        public List<Integer> handle(List<Deposit> commands) {
+            batches.add(commands.stream().map(Deposit::key).collect(Collectors.toList()));
+            return commands.stream().map(Deposit::amount).collect(Collectors.toList());
+        }
+    }
+
+    private final Handlers handlers = new Handlers();
+    private final CommandBus bus = new CommandBusBuilder()
+            .registerMiddleware(new IdempotencyMiddleware(new InMemoryIdempotencyStore(100, Duration.ofMinutes(1))))
+            .registerCommandHandler(handlers)
+            .build();
+
+    @Test
+    public void returnsStoredResultForRepeatedKey() {
+        // WHEN
+        Integer first = bus.execute(new Deposit("a", 10, false));
+        Integer repeated = bus.execute(new Deposit("a", 20, false));
+        Integer other = bus.execute(new Deposit("b", 30, false));
+
+        // THEN
+        assertThat(first).isEqualTo(10);
+        assertThat(repeated).isEqualTo(10);
+        assertThat(other).isEqualTo(30);
+        assertThat(handlers.handled).hasValue(2);
+    }
+
+    @Test
+    public void failedCommandsAreHandledAgain() {
+        // GIVEN
+        assertThatThrownBy(() -> bus.execute(new Deposit("a", 10, true))).hasMessage("declined");
+
+        // WHEN
+        Integer retried = bus.execute(new Deposit("a", 10, false));
+
+        // THEN
+        assertThat(retried).isEqualTo(10);
+        assertThat(handlers.handled).hasValue(2);
+    }
+
+    @Test
+    public void concurrentRepeatIsNotHandled() throws Exception {
+        // GIVEN
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> bus.execute(new Deposit("slow", 10, false)));
+        handlers.started.await(5, TimeUnit.SECONDS);
+
+        // WHEN
+        assertThatThrownBy(() -> bus.execute(new Deposit("slow", 10, false))).hasMessageContaining("already being handled");
+        handlers.release.countDown();
+
+        // THEN
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(10);
+        assertThat(bus.<Integer>execute(new Deposit("slow", 20, false))).isEqualTo(10);
+        assertThat(handlers.handled).hasValue(1);
+    }
+
+    @Test
+    public void batchHandlesOnlyKeysThatDidNotComplete() {
+        // GIVEN
+        bus.execute(new Deposit("a", 10, false));
+
+        // WHEN
+        List<Integer> results = bus.executeBatch(List.of(
+                new Deposit("a", 20, false),
+                new Deposit("b", 30, false),
+                new Deposit("b", 40, false),
+                new Deposit("c", 50, false)));
+
+        // THEN
+        assertThat(results).containsExactly(10, 30, 30, 50);
+        assertThat(handlers.batches).containsExactly(List.of("b", "c"));
+        assertThat(bus.<Integer>execute(new Deposit("c", 60, false))).isEqualTo(50);
+        assertThat(handlers.handled).hasValue(1);
+    }
+
+    @Test
+    public void reservationsOutliveEvictedResults() {
+        // GIVEN
+        InMemoryIdempotencyStore store = new InMemoryIdempotencyStore(1, Duration.ofMinutes(1));
+        store.reserve("a");
+
+        // WHEN
+        store.reserve("b");
+        store.complete("b", 1);
+        store.reserve("c");
+        store.complete("c", 2);
+
+        // THEN
+        assertThatThrownBy(() -> store.reserve("a")).hasMessageContaining("already being handled");
+        store.complete("a", 3);
+        assertThat(store.reserve("a").orElse(null).result()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,145 @@
+package net.johanbasson.fp.api.system.commandbus;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class MetricsMiddlewareTest {
+
+    record Ping() { }
+
+    record Fail() { }
+
+
+    public static class Handlers {
+
+        @CommandHandler
+        public String handle(Ping command) {
+            return "pong";
+        }
+
+        @CommandHandler
+        public void handle(Fail command) {
+            throw new IllegalArgumentException("boom");
+        }
+    }
+
+    @Test
+    public void recordsCountsAndErrorsPerCommandType() {
+        // GIVEN
+        MetricsMiddleware metrics = new MetricsMiddleware();
+        CommandBus bus = new CommandBusBuilder()
+                .registerMiddleware(metrics)
+                .registerCommandHandler(new Handlers())
+                .build();
+
+        // WHEN
+        bus.execute(new Ping());
+        bus.execute(new Ping());
+        assertThatThrownBy(() -> bus.execute(new Fail())).isInstanceOf(IllegalArgumentException.class);
+
+        // THEN
+        List<CommandMetrics> snapshot = metrics.snapshot();
+        assertThat(snapshot).extracting(CommandMetrics::getCommand)
+                .containsExactly(Fail.class.getName(), Ping.class.getName());
+        assertThat(snapshot.get(0).getErrors()).isEqualTo(1);
+        assertThat(snapshot.get(1).getCount()).isEqualTo(2);
+        assertThat(snapshot.get(1).getErrors()).isZero();
+        assertThat(snapshot.get(1).getInFlight()).isZero();
+        assertThat(snapshot.get(1).getP50Nanos()).isPositive();
+    }
+
+    @Test
+    public void snapshotsDoNotResetRates() {
+        // GIVEN
+        MetricsMiddleware metrics = new MetricsMiddleware(Duration.ofHours(1), 2);
+        CommandBus bus = new CommandBusBuilder()
+                .registerMiddleware(metrics)
+                .registerCommandHandler(new Handlers())
+                .build();
+        bus.execute(new Ping());
+        assertThatThrownBy(() -> bus.execute(new Fail())).isInstanceOf(IllegalArgumentException.class);
+
+        // WHEN
+        metrics.snapshot();
+        List<CommandMetrics> snapshot = metrics.snapshot();
+
+        // THEN
+        assertThat(snapshot.get(0).getErrorRate()).isPositive();
+        assertThat(snapshot.get(1).getThroughput()).isPositive();
+        metrics.close();
+    }
+
+    @Test
+    public void forgetsRatesAndLatenciesOutsideTheWindow() {
+        // GIVEN
+        MetricsMiddleware metrics = new MetricsMiddleware(Duration.ofHours(1), 2);
+        CommandBus bus = new CommandBusBuilder()
+                .registerMiddleware(metrics)
+                .registerCommandHandler(new Handlers())
+                .build();
+        bus.execute(new Ping());
+
+        // WHEN
+        metrics.rotate();
+        metrics.rotate();
+        CommandMetrics inWindow = metrics.snapshot().get(0);
+        metrics.rotate();
+        CommandMetrics outOfWindow = metrics.snapshot().get(0);
+
+        // THEN
+        assertThat(inWindow.getThroughput()).isPositive();
+        assertThat(inWindow.getP50Nanos()).isPositive();
+        assertThat(outOfWindow.getThroughput()).isZero();
+        assertThat(outOfWindow.getP50Nanos()).isZero();
+        assertThat(outOfWindow.getCount()).isEqualTo(1);
+        metrics.close();
+    }
+
+    @Test
+    public void countsErrorsAsFailures() {
+        // GIVEN
+        MetricsMiddleware metrics = new MetricsMiddleware();
+        CommandBus bus = new CommandBusBuilder()
+                .registerMiddleware(metrics)
+                .registerMiddleware(new Middleware() {
+                    @Override
+                    public <R> R execute(Object command, Function<Object, R> next) {
+                        throw new AssertionError("crashed");
+                    }
+                })
+                .registerCommandHandler(new Handlers())
+                .build();
+
+        // WHEN
+        assertThatThrownBy(() -> bus.execute(new Ping())).isInstanceOf(AssertionError.class);
+
+        // THEN
+        CommandMetrics crashed = metrics.snapshot().get(0);
+        assertThat(crashed.getErrors()).isEqualTo(1);
+        assertThat(crashed.getInFlight()).isZero();
+        metrics.close();
+    }
+
+    @Test
+    public void histogramPercentilesStayWithinBucketPrecision() {
+        // GIVEN
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // WHEN
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1_000);
+        }
+
+        // THEN
+        assertThat((double) histogram.percentile(0.5)).isCloseTo(500_000, within(500_000 * 0.125));
+        assertThat((double) histogram.percentile(0.99)).isCloseTo(990_000, within(990_000 * 0.125));
+        assertThat(histogram.percentile(0.999)).isGreaterThanOrEqualTo(999_000);
+    }
+}
@@ -0,0 +1,98 @@
+package net.johanbasson.fp.api.system.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.johanbasson.fp.api.system.commandbus.CommandBus;
+import net.johanbasson.fp.api.system.commandbus.CommandBusBuilder;
+import net.johanbasson.fp.api.system.commandbus.CommandHandler;
+import net.johanbasson.fp.api.system.queue.MessageCodec;
+import net.johanbasson.fp.api.system.queue.MessageTypeRegistry;
+import net.johanbasson.fp.api.system.transaction.UnitOfWorkMiddleware;
+import org.junit.jupiter.api.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JdbcOutboxTest {
+
+    public static class Happened {
+        private String name;
+
+        public Happened() {
+        }
+
+        Happened(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    record Change(boolean fail) { }
+
+    public class Handlers {
+
+        @CommandHandler
+        public void handle(Change command) {
+            outbox.add(new Happened("changed"));
+            if (command.fail()) {
+                throw new IllegalStateException("failed");
+            }
+        }
+    }
+
+    private final Sql2o sql2o = mock(Sql2o.class);
+    private final Connection connection = mock(Connection.class);
+    private final Query query = mock(Query.class, RETURNS_SELF);
+    private final JdbcOutbox outbox = new JdbcOutbox(sql2o,
+            new MessageCodec(new MessageTypeRegistry(new ObjectMapper(new MessagePackFactory())).register(1, Happened.class)));
+    private final CommandBus bus = new CommandBusBuilder()
+            .registerMiddleware(new UnitOfWorkMiddleware(sql2o))
+            .registerCommandHandler(new Handlers())
+            .build();
+
+    @Test
+    public void writesEventsInTheTransactionOfTheChange() {
+        // GIVEN
+        when(sql2o.beginTransaction()).thenReturn(connection);
+        when(connection.createQuery(anyString())).thenReturn(query);
+        when(query.executeUpdate()).thenReturn(connection);
+
+        // WHEN
+        bus.execute(new Change(false));
+
+        // THEN
+        verify(connection).createQuery(startsWith("INSERT INTO outbox"));
+        verify(query).addParameter(anyString(), any(byte[].class));
+        verify(connection).commit();
+        verify(sql2o, never()).open();
+    }
+
+    @Test
+    public void eventsOfFailedChangesAreRolledBack() {
+        // GIVEN
+        when(sql2o.beginTransaction()).thenReturn(connection);
+        when(connection.createQuery(anyString())).thenReturn(query);
+        when(query.executeUpdate()).thenReturn(connection);
+
+        // WHEN
+        assertThatThrownBy(() -> bus.execute(new Change(true))).hasMessage("failed");
+
+        // THEN
+        verify(connection).createQuery(startsWith("INSERT INTO outbox"));
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+    }
+}
@@ -0,0 +1,136 @@
+package net.johanbasson.fp.api.system.outbox;
+
+import net.johanbasson.fp.api.system.queue.EventDispatcher;
+import net.johanbasson.fp.api.system.queue.RetryPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class OutboxRelayTest {
+
+    private final Outbox outbox = mock(Outbox.class);
+    private final EventDispatcher dispatcher = mock(EventDispatcher.class);
+    private final OutboxRelay relay = new OutboxRelay(outbox, dispatcher, 4, Duration.ofHours(1),
+            new RetryPolicy(1, Duration.ofSeconds(1), Duration.ofMinutes(1)));
+
+    @BeforeEach
+    public void batchLimits() {
+        when(dispatcher.maxBatchSize()).thenReturn(2);
+        when(dispatcher.maxBatchBytes()).thenReturn(1024);
+    }
+
+    @AfterEach
+    public void close() {
+        relay.close();
+    }
+
+    private static Outbox.Entry entry(long id) {
+        return new Outbox.Entry(id, new byte[]{(byte) id}, 0);
+    }
+
+    private void published(List<Outbox.Entry> chunk, CompletableFuture<Void> result) {
+        List<byte[]> frames = new ArrayList<>();
+        chunk.forEach(entry -> frames.add(entry.payload()));
+        when(dispatcher.publish(frames)).thenReturn(result);
+    }
+
+    @Test
+    public void publishesClaimedEventsInBatches() {
+        // GIVEN
+        List<Outbox.Entry> entries = List.of(entry(1), entry(2), entry(3));
+        published(entries.subList(0, 2), CompletableFuture.completedFuture(null));
+        published(entries.subList(2, 3), CompletableFuture.completedFuture(null));
+        when(outbox.claim(eq(4), any())).thenReturn(entries);
+
+        // WHEN
+        relay.relay();
+
+        // THEN
+        verify(dispatcher, times(2)).publish(any());
+        verify(outbox).delete(List.of(1L, 2L, 3L));
+        verify(outbox, never()).reschedule(anyLong(), any());
+    }
+
+    @Test
+    public void reschedulesEventsOfBatchesThatFailToPublishWithoutHoldingUpOthers() {
+        // GIVEN
+        List<Outbox.Entry> entries = List.of(entry(1), entry(2), entry(3));
+        published(entries.subList(0, 2), CompletableFuture.failedFuture(new IOException("Rejected")));
+        published(entries.subList(2, 3), CompletableFuture.completedFuture(null));
+        when(outbox.claim(eq(4), any())).thenReturn(entries);
+
+        // WHEN
+        relay.relay();
+
+        // THEN
+        verify(outbox).reschedule(eq(1L), any(Duration.class));
+        verify(outbox).reschedule(eq(2L), any(Duration.class));
+        verify(outbox).delete(List.of(3L));
+    }
+
+    @Test
+    public void splitsBatchesAtTheByteLimit() {
+        // GIVEN
+        when(dispatcher.maxBatchBytes()).thenReturn(1);
+        List<Outbox.Entry> entries = List.of(entry(1), entry(2));
+        published(entries.subList(0, 1), CompletableFuture.completedFuture(null));
+        published(entries.subList(1, 2), CompletableFuture.completedFuture(null));
+        when(outbox.claim(eq(4), any())).thenReturn(entries);
+
+        // WHEN
+        relay.relay();
+
+        // THEN
+        verify(dispatcher, times(2)).publish(any());
+        verify(outbox).delete(List.of(1L, 2L));
+    }
+
+    @Test
+    public void claimsAgainWhileBatchesAreFull() {
+        // GIVEN
+        List<Outbox.Entry> full = List.of(entry(1), entry(2), entry(3), entry(4));
+        List<Outbox.Entry> partial = List.of(entry(5));
+        published(full.subList(0, 2), CompletableFuture.completedFuture(null));
+        published(full.subList(2, 4), CompletableFuture.completedFuture(null));
+        published(partial, CompletableFuture.completedFuture(null));
+        when(outbox.claim(eq(4), any())).thenReturn(full, partial);
+
+        // WHEN
+        relay.relay();
+
+        // THEN
+        verify(outbox, times(2)).claim(eq(4), any());
+        verify(outbox).delete(List.of(1L, 2L, 3L, 4L));
+        verify(outbox).delete(List.of(5L));
+    }
+
+    @Test
+    public void pollsOnlyOnceStarted() throws InterruptedException {
+        // GIVEN
+        OutboxRelay polling = new OutboxRelay(outbox, dispatcher, 4, Duration.ofMillis(1),
+                new RetryPolicy(1, Duration.ofSeconds(1), Duration.ofMinutes(1)));
+
+        // WHEN
+        Thread.sleep(50);
+
+        // THEN
+        verifyNoInteractions(outbox);
+        polling.close();
+    }
+}
@@ -0,0 +1,89 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.Channel;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class AckTrackerTest {
+
+    private final Channel channel = mock(Channel.class);
+
+    @Test
+    public void acknowledgesCompletedRunInOneBatch() throws IOException {
+        // GIVEN
+        AckTracker acks = new AckTracker(channel, 3);
+        for (long tag = 1; tag <= 4; tag++) {
+            acks.delivered(tag);
+        }
+
+        // WHEN
+        acks.acknowledge(3);
+        acks.acknowledge(2);
+        acks.acknowledge(1);
+
+        // THEN
+        verify(channel).basicAck(3, true);
+        assertThat(acks.pendingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void waitsForOldestDelivery() throws IOException {
+        // GIVEN
+        AckTracker acks = new AckTracker(channel, 1);
+        acks.delivered(1);
+        acks.delivered(2);
+
+        // WHEN
+        acks.acknowledge(2);
+
+        // THEN
+        verify(channel, never()).basicAck(anyLong(), anyBoolean());
+        assertThat(acks.pendingCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void flushesWhenNothingIsInFlight() throws IOException {
+        // GIVEN
+        AckTracker acks = new AckTracker(channel, 16);
+        acks.delivered(1);
+        acks.delivered(2);
+
+        // WHEN
+        acks.acknowledge(1);
+        acks.acknowledge(2);
+
+        // THEN
+        verify(channel).basicAck(2, true);
+        assertThat(acks.pendingCount()).isZero();
+    }
+
+    @Test
+    public void rejectsSingleDeliveryAndAcknowledgesTheRest() throws IOException {
+        // GIVEN
+        AckTracker acks = new AckTracker(channel, 16);
+        acks.delivered(1);
+        acks.delivered(2);
+        acks.delivered(3);
+        acks.acknowledge(2);
+        acks.acknowledge(3);
+
+        // WHEN
+        acks.reject(1, true);
+
+        // THEN
+        InOrder order = inOrder(channel);
+        order.verify(channel).basicNack(1, false, true);
+        order.verify(channel).basicAck(3, true);
+        assertThat(acks.pendingCount()).isZero();
+    }
+}
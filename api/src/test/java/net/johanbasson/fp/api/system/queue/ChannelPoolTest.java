@@ -0,0 +1,82 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChannelPoolTest {
+
+    private final Connection connection = mock(Connection.class);
+
+    @Test
+    public void concurrentPublishersUseSeparateChannels() throws Exception {
+        // GIVEN
+        Set<Channel> publishingOn = ConcurrentHashMap.newKeySet();
+        CountDownLatch bothPublishing = new CountDownLatch(2);
+        when(connection.createChannel()).thenAnswer(invocation -> {
+            Channel channel = mock(Channel.class);
+            doAnswer(publish -> {
+                publishingOn.add(channel);
+                bothPublishing.countDown();
+                bothPublishing.await(5, TimeUnit.SECONDS);
+                return null;
+            }).when(channel).basicPublish(anyString(), anyString(), any(), any());
+            return channel;
+        });
+        ChannelPool pool = new ChannelPool(connection, 2, 16);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        // WHEN
+        try {
+            executor.submit(() -> pool.publish("", "queue", null, new byte[0]));
+            executor.submit(() -> pool.publish("", "queue", null, new byte[0]));
+
+            // THEN
+            assertThat(bothPublishing.await(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(publishingOn).hasSize(2);
+        } finally {
+            executor.shutdown();
+            assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        }
+        assertThat(pool.idleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void rejectsEmptyPool() {
+        assertThatThrownBy(() -> new ChannelPool(connection, 0, 16))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void returnsChannelWhenPublishFails() throws IOException {
+        // GIVEN
+        Channel channel = mock(Channel.class);
+        when(connection.createChannel()).thenReturn(channel);
+        doAnswer(invocation -> {
+            throw new IOException("closed");
+        }).when(channel).basicPublish(anyString(), anyString(), any(), any());
+        ChannelPool pool = new ChannelPool(connection, 1, 16);
+
+        // WHEN
+        pool.publish("", "queue", null, new byte[0]);
+
+        // THEN
+        assertThat(pool.idleCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,143 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.johanbasson.fp.api.system.commandbus.CommandBus;
+import net.johanbasson.fp.api.system.commandbus.CommandBusBuilder;
+import net.johanbasson.fp.api.system.commandbus.CommandHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandWorkerTest {
+
+    public static class Step implements Partitioned {
+        private String key;
+        private int sequence;
+
+        public Step() {
+        }
+
+        Step(String key, int sequence) {
+            this.key = key;
+            this.sequence = sequence;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+
+        @Override
+        public Object partitionKey() {
+            return key;
+        }
+    }
+
+    public static class Handlers {
+        final Map<String, List<Integer>> executed = new ConcurrentHashMap<>();
+        final Set<String> failing = ConcurrentHashMap.newKeySet();
+        final CountDownLatch done;
+
+        Handlers(int expected) {
+            this.done = new CountDownLatch(expected);
+        }
+
+        @CommandHandler
+        public void handle(Step step) throws InterruptedException {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            if (failing.remove(step.getKey() + ":" + step.getSequence())) {
+                throw new IllegalStateException("Failed once");
+            }
+            executed.computeIfAbsent(step.getKey(), key -> new CopyOnWriteArrayList<>()).add(step.getSequence());
+            done.countDown();
+        }
+    }
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final MemoryTransport transport = new MemoryTransport(1024, 64);
+    private final MessageCodec codec = new MessageCodec(new MessageTypeRegistry(new ObjectMapper(new MessagePackFactory())).register(1, Step.class));
+
+    @AfterEach
+    public void shutdown() {
+        transport.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void executesCommandsOfAKeyInOrder() throws Exception {
+        // GIVEN
+        Handlers handlers = new Handlers(60);
+        CommandBus bus = new CommandBusBuilder()
+                .registerCommandHandler(handlers)
+                .executorService(executor)
+                .build();
+        CommandDispatcher dispatcher = new CommandDispatcher(transport, codec, 2);
+        new CommandWorker(transport, codec, bus, new RetryPolicy(1, Duration.ZERO, Duration.ZERO), 2);
+
+        // WHEN
+        for (int sequence = 0; sequence < 20; sequence++) {
+            for (String key : List.of("a", "b", "c")) {
+                dispatcher.dispatch(new Step(key, sequence));
+            }
+        }
+
+        // THEN
+        assertThat(handlers.done.await(10, TimeUnit.SECONDS)).isTrue();
+        for (String key : List.of("a", "b", "c")) {
+            assertThat(handlers.executed.get(key)).isSorted().hasSize(20);
+        }
+    }
+
+    @Test
+    public void retriesAFailedCommandBeforeTheNextOfItsKey() throws Exception {
+        // GIVEN
+        Handlers handlers = new Handlers(60);
+        handlers.failing.addAll(List.of("a:3", "b:0", "c:19"));
+        CommandBus bus = new CommandBusBuilder()
+                .registerCommandHandler(handlers)
+                .executorService(executor)
+                .build();
+        CommandDispatcher dispatcher = new CommandDispatcher(transport, codec, 2);
+        new CommandWorker(transport, codec, bus, new RetryPolicy(3, Duration.ofMillis(5), Duration.ofMillis(20)), 2);
+
+        // WHEN
+        for (int sequence = 0; sequence < 20; sequence++) {
+            for (String key : List.of("a", "b", "c")) {
+                dispatcher.dispatch(new Step(key, sequence));
+            }
+        }
+
+        // THEN
+        assertThat(handlers.done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(handlers.failing).isEmpty();
+        for (String key : List.of("a", "b", "c")) {
+            assertThat(handlers.executed.get(key)).isSorted().hasSize(20);
+        }
+    }
+
+    @Test
+    public void sendsCommandsOfAKeyToOnePartition() throws Exception {
+        // GIVEN
+        CommandDispatcher dispatcher = new CommandDispatcher(transport, codec, 8);
+
+        // THEN
+        assertThat(dispatcher.partition(new Step("a", 1))).isEqualTo(dispatcher.partition(new Step("a", 2)));
+    }
+}
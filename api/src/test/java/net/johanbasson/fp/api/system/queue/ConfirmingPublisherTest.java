@@ -0,0 +1,99 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConfirmingPublisherTest {
+
+    private final Channel channel = mock(Channel.class);
+    private final AtomicLong sequence = new AtomicLong(1);
+    private ConfirmingPublisher publisher;
+    private ConfirmListener confirms;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        when(channel.getNextPublishSeqNo()).thenAnswer(invocation -> sequence.getAndIncrement());
+        publisher = new ConfirmingPublisher(channel, 4);
+
+        ArgumentCaptor<ConfirmListener> listener = ArgumentCaptor.forClass(ConfirmListener.class);
+        verify(channel).confirmSelect();
+        verify(channel).addConfirmListener(listener.capture());
+        confirms = listener.getValue();
+    }
+
+    private CompletableFuture<Void> publish() {
+        return publisher.publish("", "queue", null, new byte[0]);
+    }
+
+    @Test
+    public void completesOnAck() throws IOException {
+        // GIVEN
+        CompletableFuture<Void> first = publish();
+        CompletableFuture<Void> second = publish();
+
+        // WHEN
+        confirms.handleAck(1, false);
+
+        // THEN
+        assertThat(first).isCompleted();
+        assertThat(second).isNotDone();
+        assertThat(publisher.outstandingCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void multipleAckCompletesAllUpToTag() throws IOException {
+        // GIVEN
+        CompletableFuture<Void> first = publish();
+        CompletableFuture<Void> second = publish();
+        CompletableFuture<Void> third = publish();
+
+        // WHEN
+        confirms.handleAck(2, true);
+
+        // THEN
+        assertThat(first).isCompleted();
+        assertThat(second).isCompleted();
+        assertThat(third).isNotDone();
+    }
+
+    @Test
+    public void failsOnNack() throws IOException {
+        // GIVEN
+        CompletableFuture<Void> published = publish();
+
+        // WHEN
+        confirms.handleNack(1, false);
+
+        // THEN
+        assertThat(published).isCompletedExceptionally();
+        assertThat(publisher.outstandingCount()).isZero();
+    }
+
+    @Test
+    public void failsWhenPublishThrows() throws IOException {
+        // GIVEN
+        doThrow(new IOException("closed")).when(channel).basicPublish(anyString(), anyString(), any(), any());
+
+        // WHEN
+        CompletableFuture<Void> published = publish();
+
+        // THEN
+        assertThat(published).isCompletedExceptionally();
+        assertThat(publisher.outstandingCount()).isZero();
+    }
+}
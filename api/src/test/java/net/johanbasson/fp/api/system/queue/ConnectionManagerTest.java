@@ -0,0 +1,70 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+class ConnectionManagerTest {
+
+    private final ConnectionFactory factory = mock(ConnectionFactory.class);
+    private final Connection publishing = mock(Connection.class, withSettings().extraInterfaces(Recoverable.class));
+    private final Connection consuming = mock(Connection.class, withSettings().extraInterfaces(Recoverable.class));
+
+    @BeforeEach
+    public void setUp() throws IOException, TimeoutException {
+        when(factory.newConnection("fp-publishing")).thenReturn(publishing);
+        when(factory.newConnection("fp-consuming")).thenReturn(consuming);
+        when(publishing.isOpen()).thenReturn(true);
+        when(consuming.isOpen()).thenReturn(true);
+    }
+
+    @Test
+    public void reportsOpenConnections() throws IOException, TimeoutException {
+        // GIVEN
+        ConnectionManager connections = new ConnectionManager(factory);
+
+        // THEN
+        assertThat(connections.isHealthy()).isTrue();
+        assertThat(connections.health())
+                .extracting(ConnectionHealth::getConnection)
+                .containsExactly("publishing", "consuming");
+    }
+
+    @Test
+    public void reportsRecovery() throws IOException, TimeoutException {
+        // GIVEN
+        ConnectionManager connections = new ConnectionManager(factory);
+        ArgumentCaptor<RecoveryListener> listener = ArgumentCaptor.forClass(RecoveryListener.class);
+        verify((Recoverable) consuming).addRecoveryListener(listener.capture());
+
+        // WHEN
+        when(consuming.isOpen()).thenReturn(false);
+        listener.getValue().handleRecoveryStarted((Recoverable) consuming);
+
+        // THEN
+        assertThat(connections.isHealthy()).isFalse();
+        assertThat(connections.health().get(1).isRecovering()).isTrue();
+
+        // WHEN
+        when(consuming.isOpen()).thenReturn(true);
+        listener.getValue().handleRecovery((Recoverable) consuming);
+
+        // THEN
+        assertThat(connections.isHealthy()).isTrue();
+        assertThat(connections.health().get(1).isRecovering()).isFalse();
+        assertThat(connections.health().get(1).getRecoveries()).isEqualTo(1);
+    }
+}
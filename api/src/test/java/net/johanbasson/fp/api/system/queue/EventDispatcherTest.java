@@ -0,0 +1,146 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.johanbasson.fp.api.system.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventDispatcherTest {
+
+    public static class Happened {
+        private int sequence;
+
+        public Happened() {
+        }
+
+        Happened(int sequence) {
+            this.sequence = sequence;
+        }
+
+        public int getSequence() {
+            return sequence;
+        }
+    }
+
+    private final MemoryTransport transport = new MemoryTransport(1024, 64);
+    private final MessageCodec codec = new MessageCodec(new MessageTypeRegistry(new ObjectMapper(new MessagePackFactory())).register(1, Happened.class));
+    private final BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+
+    @AfterEach
+    public void shutdown() {
+        transport.close();
+    }
+
+    @Test
+    public void publishesAFullBatchAsOneMessage() throws Exception {
+        // GIVEN
+        EventDispatcher dispatcher = new EventDispatcher(transport, codec, 10, 65536, Duration.ofMinutes(1));
+        consume();
+
+        // WHEN
+        CompletableFuture<?>[] published = new CompletableFuture<?>[10];
+        for (int sequence = 0; sequence < 10; sequence++) {
+            published[sequence] = dispatcher.dispatch(new Happened(sequence));
+        }
+
+        // THEN
+        CompletableFuture.allOf(published).get(1, TimeUnit.SECONDS);
+        List<Object> events = codec.decodeAll(messages.poll(1, TimeUnit.SECONDS));
+        assertThat(events).hasSize(10);
+        assertThat(((Happened) events.get(9)).getSequence()).isEqualTo(9);
+        assertThat(messages).isEmpty();
+    }
+
+    @Test
+    public void publishesALingeringBatch() throws Exception {
+        // GIVEN
+        EventDispatcher dispatcher = new EventDispatcher(transport, codec, 10, 65536, Duration.ofMillis(20));
+        consume();
+
+        // WHEN
+        dispatcher.dispatch(new Happened(1));
+        dispatcher.dispatch(new Happened(2)).get(1, TimeUnit.SECONDS);
+
+        // THEN
+        assertThat(codec.decodeAll(messages.poll(1, TimeUnit.SECONDS))).hasSize(2);
+    }
+
+    @Test
+    public void publishesBufferedEventsOnClose() throws Exception {
+        // GIVEN
+        EventDispatcher dispatcher = new EventDispatcher(transport, codec, 10, 65536, Duration.ofMinutes(1));
+        consume();
+        CompletableFuture<Void> published = dispatcher.dispatch(new Happened(1));
+
+        // WHEN
+        dispatcher.close();
+
+        // THEN
+        published.get(1, TimeUnit.SECONDS);
+        assertThat(codec.decode(messages.poll(1, TimeUnit.SECONDS))).isInstanceOf(Happened.class);
+    }
+
+    @Test
+    public void dispatchesWhileTheTransportIsBlockedAndKeepsOrder() throws Exception {
+        // GIVEN
+        MemoryTransport transport = new MemoryTransport(2, 64, Duration.ofSeconds(30));
+        EventDispatcher dispatcher = new EventDispatcher(transport, codec, 2, 65536, Duration.ofMinutes(1));
+        List<CompletableFuture<Void>> published = new ArrayList<>();
+        for (int sequence = 0; sequence < 6; sequence++) {
+            published.add(dispatcher.dispatch(new Happened(sequence)));
+        }
+
+        // WHEN
+        CompletableFuture<Void> dispatched = CompletableFuture.runAsync(() -> {
+            for (int sequence = 6; sequence < 8; sequence++) {
+                published.add(dispatcher.dispatch(new Happened(sequence)));
+            }
+        });
+
+        // THEN
+        dispatched.get(1, TimeUnit.SECONDS);
+        assertThat(published.get(4)).isNotDone();
+        transport.consume(Constants.Queues.EVENTS, delivery -> {
+            messages.add(delivery.body());
+            delivery.ack();
+        });
+        CompletableFuture.allOf(published.toArray(CompletableFuture<?>[]::new)).get(5, TimeUnit.SECONDS);
+        for (int batch = 0; batch < 4; batch++) {
+            List<Object> events = codec.decodeAll(messages.poll(1, TimeUnit.SECONDS));
+            assertThat(events).extracting(event -> ((Happened) event).getSequence()).containsExactly(batch * 2, batch * 2 + 1);
+        }
+        dispatcher.close();
+        transport.close();
+    }
+
+    @Test
+    public void publishesEncodedEventsWithoutBuffering() throws Exception {
+        // GIVEN
+        EventDispatcher dispatcher = new EventDispatcher(transport, codec, 10, 65536, Duration.ofMinutes(1));
+        consume();
+
+        // WHEN
+        dispatcher.publish(List.of(codec.encode(new Happened(1)), codec.encode(new Happened(2)))).get(1, TimeUnit.SECONDS);
+
+        // THEN
+        assertThat(codec.decodeAll(messages.poll(1, TimeUnit.SECONDS))).hasSize(2);
+    }
+
+    private void consume() {
+        transport.consume(Constants.Queues.EVENTS, delivery -> {
+            messages.add(delivery.body());
+            delivery.ack();
+        });
+    }
+}
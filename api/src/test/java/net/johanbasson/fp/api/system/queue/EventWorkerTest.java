@@ -0,0 +1,93 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.eventbus.Subscribe;
+import net.johanbasson.fp.api.system.Constants;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventWorkerTest {
+
+    public static class Happened {
+        private boolean fail;
+
+        public Happened() {
+        }
+
+        Happened(boolean fail) {
+            this.fail = fail;
+        }
+
+        public boolean isFail() {
+            return fail;
+        }
+    }
+
+    public static class Subscriber {
+        final List<Happened> handled = new CopyOnWriteArrayList<>();
+
+        @Subscribe
+        public void on(Happened event) {
+            handled.add(event);
+            if (event.isFail()) {
+                throw new IllegalStateException("Subscriber failed");
+            }
+        }
+    }
+
+    private final MemoryTransport transport = new MemoryTransport(64, 8);
+    private final MessageCodec codec = new MessageCodec(new MessageTypeRegistry(new ObjectMapper(new MessagePackFactory())).register(1, Happened.class));
+    private final Subscriber subscriber = new Subscriber();
+    private final BlockingQueue<Delivery> deadLetters = new LinkedBlockingQueue<>();
+    private EventWorker worker;
+
+    @AfterEach
+    public void shutdown() throws Exception {
+        worker.close();
+        transport.close();
+    }
+
+    @Test
+    public void retriesThenDeadLettersEventsASubscriberFailsToHandle() throws Exception {
+        // GIVEN
+        worker = new EventWorker(transport, codec, List.of(subscriber), new RetryPolicy(2, Duration.ZERO, Duration.ZERO));
+        transport.consume(Constants.Queues.EVENTS_DEAD_LETTER, deadLetters::add);
+
+        // WHEN
+        transport.publish(Constants.Queues.EVENTS, codec.encode(new Happened(true)));
+
+        // THEN
+        Delivery deadLetter = deadLetters.poll(5, TimeUnit.SECONDS);
+        assertThat(deadLetter).isNotNull();
+        assertThat((String) deadLetter.headers().get(RetryScheduler.FAILURE_HEADER)).contains("Subscriber failed");
+        assertThat(subscriber.handled).hasSize(2);
+    }
+
+    @Test
+    public void acknowledgesHandledEvents() throws Exception {
+        // GIVEN
+        worker = new EventWorker(transport, codec, List.of(subscriber), new RetryPolicy(2, Duration.ZERO, Duration.ZERO));
+        transport.consume(Constants.Queues.EVENTS_DEAD_LETTER, deadLetters::add);
+
+        // WHEN
+        transport.publish(Constants.Queues.EVENTS, codec.encodeBatch(List.of(codec.encode(new Happened(false)), codec.encode(new Happened(false)))));
+
+        // THEN
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (subscriber.handled.size() < 2 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertThat(subscriber.handled).hasSize(2);
+        assertThat(deadLetters.poll(50, TimeUnit.MILLISECONDS)).isNull();
+    }
+}
@@ -0,0 +1,184 @@
+package net.johanbasson.fp.api.system.queue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryTransportTest {
+
+    private final MemoryTransport transport = new MemoryTransport(4, 2);
+
+    @AfterEach
+    public void close() {
+        transport.close();
+    }
+
+    private static byte[] body(int value) {
+        return new byte[]{(byte) value};
+    }
+
+    @Test
+    public void deliversPublishedMessagesInOrder() throws Exception {
+        // GIVEN
+        BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+        transport.consume("queue", deliveries::add);
+
+        // WHEN
+        transport.publish("queue", body(1));
+        transport.publish("queue", body(2));
+
+        // THEN
+        Delivery first = deliveries.poll(5, TimeUnit.SECONDS);
+        Delivery second = deliveries.poll(5, TimeUnit.SECONDS);
+        assertThat(first.body()).containsExactly(1);
+        assertThat(second.body()).containsExactly(2);
+    }
+
+    @Test
+    public void limitsUnsettledDeliveriesToPrefetch() throws Exception {
+        // GIVEN
+        BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+        for (int i = 0; i < 3; i++) {
+            transport.publish("queue", body(i));
+        }
+
+        // WHEN
+        transport.consume("queue", deliveries::add);
+
+        // THEN
+        Delivery first = deliveries.poll(5, TimeUnit.SECONDS);
+        assertThat(deliveries.poll(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(deliveries.poll(50, TimeUnit.MILLISECONDS)).isNull();
+
+        first.ack();
+        assertThat(deliveries.poll(5, TimeUnit.SECONDS).body()).containsExactly(2);
+    }
+
+    @Test
+    public void redeliversRequeuedMessages() throws Exception {
+        // GIVEN
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> redelivered = new CompletableFuture<>();
+        transport.consume("queue", delivery -> {
+            received.add((int) delivery.body()[0]);
+            if (received.size() == 1) {
+                delivery.reject(true);
+            } else {
+                delivery.ack();
+                redelivered.complete(null);
+            }
+        });
+
+        // WHEN
+        transport.publish("queue", body(7));
+
+        // THEN
+        redelivered.get(5, TimeUnit.SECONDS);
+        assertThat(received).containsExactly(7, 7);
+        assertThat(transport.depth("queue")).isZero();
+    }
+
+    @Test
+    public void blocksPublisherWhileFull() throws Exception {
+        // GIVEN
+        for (int i = 0; i < 4; i++) {
+            transport.publish("queue", body(i));
+        }
+
+        // WHEN
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> transport.publish("queue", body(4)));
+
+        // THEN
+        assertThatThrownBy(() -> blocked.get(50, TimeUnit.MILLISECONDS))
+                .isInstanceOf(TimeoutException.class);
+
+        transport.consume("queue", Delivery::ack);
+        blocked.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void failsPublishToAQueueThatStaysFull() {
+        // GIVEN
+        MemoryTransport transport = new MemoryTransport(4, 2, Duration.ofMillis(50));
+        for (int i = 0; i < 4; i++) {
+            transport.publish("queue", body(i));
+        }
+
+        // WHEN
+        CompletableFuture<Void> published = transport.publish("queue", body(4));
+
+        // THEN
+        assertThatThrownBy(() -> published.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IOException.class);
+        assertThat(transport.depth("queue")).isEqualTo(4);
+        transport.close();
+    }
+
+    @Test
+    public void deadLetterQueueKeepsNewestMessages() throws Exception {
+        // GIVEN
+        transport.declareDeadLetter("dead-letter");
+
+        // WHEN
+        for (int i = 0; i < 6; i++) {
+            transport.publish("dead-letter", body(i)).get(5, TimeUnit.SECONDS);
+        }
+
+        // THEN
+        assertThat(transport.depth("dead-letter")).isEqualTo(4);
+        BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+        transport.consume("dead-letter", delivery -> {
+            deliveries.add(delivery);
+            delivery.ack();
+        });
+        for (int i = 2; i < 6; i++) {
+            assertThat(deliveries.poll(5, TimeUnit.SECONDS).body()).containsExactly(i);
+        }
+    }
+
+    @Test
+    public void delaysPublishingWhileTheQueueIsFull() throws Exception {
+        // GIVEN
+        for (int i = 0; i < 4; i++) {
+            transport.publish("queue", body(i));
+        }
+        transport.publishDelayed("queue", body(4), Map.of(), Duration.ofMillis(1)).get(5, TimeUnit.SECONDS);
+        BlockingQueue<Delivery> deliveries = new LinkedBlockingQueue<>();
+
+        // WHEN
+        transport.consume("queue", delivery -> {
+            deliveries.add(delivery);
+            delivery.ack();
+        });
+
+        // THEN
+        for (int i = 0; i < 5; i++) {
+            assertThat(deliveries.poll(5, TimeUnit.SECONDS).body()).containsExactly(i);
+        }
+    }
+
+    @Test
+    public void allowsOneConsumerPerQueue() {
+        // GIVEN
+        transport.consume("queue", Delivery::ack);
+
+        // THEN
+        assertThatThrownBy(() -> transport.consume("queue", Delivery::ack))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
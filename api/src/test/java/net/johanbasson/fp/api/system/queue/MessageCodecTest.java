@@ -0,0 +1,144 @@
+package net.johanbasson.fp.api.system.queue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MessageCodecTest {
+
+    public static class Greeting {
+        private String name;
+        private int times;
+
+        public Greeting() {
+        }
+
+        Greeting(String name, int times) {
+            this.name = name;
+            this.times = times;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getTimes() {
+            return times;
+        }
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper(new MessagePackFactory());
+    private final MessageCodec codec = new MessageCodec(new MessageTypeRegistry(objectMapper).register(7, Greeting.class));
+
+    @Test
+    public void roundTripsFramedMessages() throws IOException {
+        // WHEN
+        byte[] frame = codec.encode(new Greeting("John", 2));
+        Greeting decoded = (Greeting) codec.decode(frame);
+
+        // THEN
+        assertThat(frame[0]).isEqualTo(MessageCodec.MAGIC);
+        assertThat(frame[1]).isEqualTo(MessageCodec.VERSION);
+        assertThat(ByteBuffer.wrap(frame, 4, 4).getInt()).isEqualTo(7);
+        assertThat(decoded.getName()).isEqualTo("John");
+        assertThat(decoded.getTimes()).isEqualTo(2);
+    }
+
+    @Test
+    public void sendsTypeNameOfUnregisteredTypes() throws IOException {
+        // GIVEN
+        MessageCodec unregistered = new MessageCodec(new MessageTypeRegistry(objectMapper));
+
+        // WHEN
+        byte[] frame = unregistered.encode(new Greeting("John", 2));
+
+        // THEN
+        assertThat(ByteBuffer.wrap(frame, 4, 4).getInt()).isZero();
+        assertThat(frame.length).isGreaterThan(codec.encode(new Greeting("John", 2)).length + Greeting.class.getName().length());
+        assertThat(((Greeting) codec.decode(frame)).getName()).isEqualTo("John");
+    }
+
+    @Test
+    public void readsPreviousEnvelopeFormat() throws IOException {
+        // GIVEN
+        Map<String, Object> envelope = new LinkedHashMap<>();
+        envelope.put("body", objectMapper.writeValueAsBytes(new Greeting("Jane", 3)));
+        envelope.put("clazz", Greeting.class.getName());
+
+        // WHEN
+        Greeting decoded = (Greeting) codec.decode(objectMapper.writeValueAsBytes(envelope));
+
+        // THEN
+        assertThat(decoded.getName()).isEqualTo("Jane");
+        assertThat(decoded.getTimes()).isEqualTo(3);
+    }
+
+    @Test
+    public void compressesPayloadsFromThreshold() throws IOException {
+        // GIVEN
+        MessageCodec compressing = new MessageCodec(new MessageTypeRegistry(objectMapper).register(7, Greeting.class), 256);
+        String name = "John ".repeat(200);
+
+        // WHEN
+        byte[] small = compressing.encode(new Greeting("John", 2));
+        byte[] large = compressing.encode(new Greeting(name, 2));
+
+        // THEN
+        assertThat(ByteBuffer.wrap(small, 2, 2).getShort()).isZero();
+        assertThat(ByteBuffer.wrap(large, 2, 2).getShort()).isEqualTo(MessageCodec.FLAG_COMPRESSED);
+        assertThat(large.length).isLessThan(name.length());
+        assertThat(((Greeting) codec.decode(large)).getName()).isEqualTo(name);
+    }
+
+    @Test
+    public void leavesIncompressiblePayloadsAsIs() throws IOException {
+        // GIVEN
+        MessageCodec compressing = new MessageCodec(new MessageTypeRegistry(objectMapper).register(7, Greeting.class), 1);
+
+        // WHEN
+        byte[] frame = compressing.encode(new Greeting("J", 2));
+
+        // THEN
+        assertThat(ByteBuffer.wrap(frame, 2, 2).getShort()).isZero();
+        assertThat(((Greeting) codec.decode(frame)).getName()).isEqualTo("J");
+    }
+
+    @Test
+    public void roundTripsCompressedBatches() throws IOException {
+        // GIVEN
+        MessageCodec compressing = new MessageCodec(new MessageTypeRegistry(objectMapper).register(7, Greeting.class), 256);
+        List<byte[]> frames = new ArrayList<>();
+        for (int times = 0; times < 50; times++) {
+            frames.add(compressing.encode(new Greeting("John", times)));
+        }
+
+        // WHEN
+        byte[] batch = compressing.encodeBatch(frames);
+        List<Object> greetings = codec.decodeAll(batch);
+
+        // THEN
+        assertThat(ByteBuffer.wrap(batch, 2, 2).getShort()).isEqualTo((short) (MessageCodec.FLAG_BATCH | MessageCodec.FLAG_COMPRESSED));
+        assertThat(greetings).hasSize(50);
+        assertThat(((Greeting) greetings.get(49)).getTimes()).isEqualTo(49);
+        assertThatThrownBy(() -> codec.decode(batch)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    public void rejectsTruncatedFrames() throws IOException {
+        byte[] frame = codec.encode(new Greeting("John", 2));
+        byte[] truncated = new byte[frame.length - 1];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+
+        assertThatThrownBy(() -> codec.decode(truncated)).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,46 @@
+package net.johanbasson.fp.api.system.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(5, Duration.ofMillis(100), Duration.ofSeconds(1));
+
+    @Test
+    public void doublesDelayWithJitterUpToMax() {
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.delay(1).toMillis()).isBetween(50L, 100L);
+            assertThat(policy.delay(3).toMillis()).isBetween(200L, 400L);
+            assertThat(policy.delay(10).toMillis()).isBetween(500L, 1000L);
+            assertThat(policy.delay(100).toMillis()).isBetween(500L, 1000L);
+        }
+    }
+
+    @Test
+    public void retriesStraightAwayWithoutInitialDelay() {
+        RetryPolicy immediate = new RetryPolicy(5, Duration.ZERO, Duration.ofSeconds(1));
+
+        assertThat(immediate.delay(1)).isZero();
+        assertThat(immediate.delay(4)).isZero();
+    }
+
+    @Test
+    public void capsLargeDelaysWithoutOverflowing() {
+        RetryPolicy large = new RetryPolicy(100, Duration.ofDays(365), Duration.ofDays(3650));
+
+        for (int attempt = 1; attempt < 100; attempt++) {
+            assertThat(large.delay(attempt)).isPositive().isLessThanOrEqualTo(Duration.ofDays(3650));
+        }
+        assertThat(large.delay(20).toMillis()).isGreaterThanOrEqualTo(Duration.ofDays(1825).toMillis());
+    }
+
+    @Test
+    public void retriesUntilMaxAttempts() {
+        assertThat(policy.shouldRetry(4)).isTrue();
+        assertThat(policy.shouldRetry(5)).isFalse();
+    }
+}
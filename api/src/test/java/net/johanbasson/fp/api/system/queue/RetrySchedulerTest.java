@@ -0,0 +1,93 @@
+package net.johanbasson.fp.api.system.queue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RetrySchedulerTest {
+
+    private final MemoryTransport transport = new MemoryTransport(16, 4);
+    private final RetryScheduler retries = new RetryScheduler(transport, "queue.dead-letter",
+            new RetryPolicy(3, Duration.ofMillis(1), Duration.ofMillis(5)));
+
+    @AfterEach
+    public void close() {
+        transport.close();
+    }
+
+    @Test
+    public void retriesThenDeadLettersWithReason() throws Exception {
+        // GIVEN
+        List<Integer> attempts = new CopyOnWriteArrayList<>();
+        BlockingQueue<Delivery> deadLetters = new LinkedBlockingQueue<>();
+        transport.consume("queue", delivery -> {
+            attempts.add(RetryScheduler.attempt(delivery));
+            retries.retry("queue", delivery, new IllegalStateException("Handler failed"));
+        });
+        transport.consume("queue.dead-letter", deadLetters::add);
+
+        // WHEN
+        transport.publish("queue", new byte[]{42});
+
+        // THEN
+        Delivery deadLetter = deadLetters.poll(5, TimeUnit.SECONDS);
+        assertThat(deadLetter.body()).containsExactly(42);
+        assertThat(deadLetter.headers().get(RetryScheduler.ATTEMPT_HEADER)).isEqualTo(3);
+        assertThat((String) deadLetter.headers().get(RetryScheduler.FAILURE_HEADER)).contains("Handler failed");
+        assertThat(attempts).containsExactly(1, 2, 3);
+        assertThat(transport.depth("queue")).isZero();
+    }
+
+    @Test
+    public void deadLettersImmediately() throws Exception {
+        // GIVEN
+        BlockingQueue<Delivery> deadLetters = new LinkedBlockingQueue<>();
+        transport.consume("queue", delivery -> retries.deadLetter("queue", delivery, new IllegalArgumentException("Unreadable")));
+        transport.consume("queue.dead-letter", deadLetters::add);
+
+        // WHEN
+        transport.publish("queue", new byte[]{1});
+
+        // THEN
+        Delivery deadLetter = deadLetters.poll(5, TimeUnit.SECONDS);
+        assertThat(deadLetter.headers().get(RetryScheduler.ATTEMPT_HEADER)).isEqualTo(1);
+        assertThat((String) deadLetter.headers().get(RetryScheduler.FAILURE_HEADER)).contains("Unreadable");
+    }
+
+    @Test
+    public void waitingRetryDoesNotHoldUpLaterDeliveries() throws Exception {
+        // GIVEN
+        MemoryTransport single = new MemoryTransport(16, 1);
+        RetryScheduler slowRetries = new RetryScheduler(single, "queue.dead-letter",
+                new RetryPolicy(3, Duration.ofMinutes(1), Duration.ofMinutes(1)));
+        BlockingQueue<Integer> handled = new LinkedBlockingQueue<>();
+        single.consume("queue", delivery -> {
+            handled.add((int) delivery.body()[0]);
+            if (delivery.body()[0] == 1) {
+                slowRetries.retry("queue", delivery, new IllegalStateException("Handler failed"));
+            } else {
+                delivery.ack();
+            }
+        });
+
+        try {
+            // WHEN
+            single.publish("queue", new byte[]{1});
+            single.publish("queue", new byte[]{2});
+
+            // THEN
+            assertThat(handled.poll(5, TimeUnit.SECONDS)).isEqualTo(1);
+            assertThat(handled.poll(5, TimeUnit.SECONDS)).isEqualTo(2);
+        } finally {
+            single.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package net.johanbasson.fp.api.system.queue;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RingBufferTest {
+
+    @Test
+    public void roundsCapacityUpAndRejectsWhenFull() {
+        // GIVEN
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+
+        // WHEN
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(i)).isTrue();
+        }
+
+        // THEN
+        assertThat(buffer.capacity()).isEqualTo(4);
+        assertThat(buffer.offer(4)).isFalse();
+        assertThat(buffer.poll()).isZero();
+        assertThat(buffer.offer(4)).isTrue();
+    }
+
+    @Test
+    public void keepsOrderOfASingleProducer() {
+        // GIVEN
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+
+        // WHEN
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 8; i++) {
+                buffer.offer(round * 8 + i);
+            }
+
+            // THEN
+            for (int i = 0; i < 8; i++) {
+                assertThat(buffer.poll()).isEqualTo(round * 8 + i);
+            }
+            assertThat(buffer.poll()).isNull();
+        }
+    }
+
+    @Test
+    public void concurrentProducersAndConsumersLoseNothing() throws InterruptedException {
+        // GIVEN
+        RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        int perProducer = 10_000;
+        Set<Integer> received = ConcurrentHashMap.newKeySet();
+        CountDownLatch done = new CountDownLatch(4 * perProducer);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // WHEN
+        for (int producer = 0; producer < 4; producer++) {
+            int offset = producer * perProducer;
+            executor.execute(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(offset + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+        }
+        for (int consumer = 0; consumer < 4; consumer++) {
+            executor.execute(() -> {
+                while (done.getCount() > 0) {
+                    Integer element = buffer.poll();
+                    if (element != null) {
+                        received.add(element);
+                        done.countDown();
+                    }
+                }
+            });
+        }
+
+        // THEN
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        executor.shutdownNow();
+        assertThat(received).hasSize(4 * perProducer);
+        assertThat(buffer.isEmpty()).isTrue();
+    }
+}
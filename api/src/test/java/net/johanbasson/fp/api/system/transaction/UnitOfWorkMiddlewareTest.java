@@ -0,0 +1,84 @@
+package net.johanbasson.fp.api.system.transaction;
+
+import net.johanbasson.fp.api.system.commandbus.CommandBus;
+import net.johanbasson.fp.api.system.commandbus.CommandBusBuilder;
+import net.johanbasson.fp.api.system.commandbus.CommandHandler;
+import org.junit.jupiter.api.Test;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UnitOfWorkMiddlewareTest {
+
+    record Store(boolean fail) { }
+
+    record Unhandled() { }
+
+    public class Handlers {
+
+        @CommandHandler
+        public Connection handle(Store command) {
+            Connection first = UnitOfWork.withConnection(sql2o, con -> con);
+            Connection second = UnitOfWork.inTransaction(sql2o, con -> con);
+            assertThat(first).isSameAs(second);
+            if (command.fail()) {
+                throw new IllegalStateException("failed");
+            }
+            return first;
+        }
+    }
+
+    private final Sql2o sql2o = mock(Sql2o.class);
+    private final Connection connection = mock(Connection.class);
+    private final CommandBus bus = new CommandBusBuilder()
+            .registerMiddleware(new UnitOfWorkMiddleware(sql2o))
+            .registerCommandHandler(new Handlers())
+            .build();
+
+    @Test
+    public void repositoriesShareOneCommittedTransaction() {
+        // GIVEN
+        when(sql2o.beginTransaction()).thenReturn(connection);
+
+        // WHEN
+        Connection used = bus.execute(new Store(false));
+
+        // THEN
+        assertThat(used).isSameAs(connection);
+        verify(connection).commit();
+        verify(connection, never()).rollback();
+        verify(sql2o, never()).open();
+    }
+
+    @Test
+    public void failedCommandsAreRolledBack() {
+        // GIVEN
+        when(sql2o.beginTransaction()).thenReturn(connection);
+
+        // WHEN
+        assertThatThrownBy(() -> bus.execute(new Store(true))).hasMessage("failed");
+
+        // THEN
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        assertThat(UnitOfWork.isActive(sql2o)).isFalse();
+    }
+
+    @Test
+    public void commandsWithoutHandlerOpenNoTransaction() {
+        // WHEN
+        assertThatThrownBy(() -> bus.execute(new Unhandled()))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("not found");
+
+        // THEN
+        verifyNoInteractions(sql2o);
+    }
+}
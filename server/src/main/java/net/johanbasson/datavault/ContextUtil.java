@@ -2,8 +2,10 @@ package net.johanbasson.datavault;
 
 import cyclops.control.Either;
 import io.javalin.http.Context;
+import net.johanbasson.fp.api.system.commandbus.CommandRejectedException;
 import net.johanbasson.fp.api.system.errors.ApiError;
 import net.johanbasson.fp.api.system.errors.ErrorMessage;
+import net.johanbasson.fp.api.system.errors.ErrorType;
 import net.johanbasson.fp.api.users.JwtToken;
 import org.eclipse.jetty.http.HttpStatus;
 import org.jetbrains.annotations.NotNull;
@@ -15,7 +17,7 @@ public final class ContextUtil {
     public static BiFunction<Either<ApiError, JwtToken>, Throwable, Object> ok(@NotNull Context context) {
         return (result, throwable) -> {
             if (throwable != null) {
-                context.status(HttpStatus.INTERNAL_SERVER_ERROR_500).json(new ErrorMessage(String.format("Internal Server Error: %s", throwable.getLocalizedMessage())));
+                failure(context, throwable);
             } else {
                 result.fold(
                         apiError -> {
@@ -32,4 +34,18 @@ public final class ContextUtil {
         };
     }
 
+    /**
+     * Responds with 503 when the command bus rejected a command because it is overloaded,
+     * so clients know to back off and retry, and with 500 otherwise.
+     */
+    public static void failure(@NotNull Context context, Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CommandRejectedException) {
+                context.status(HttpStatus.SERVICE_UNAVAILABLE_503).json(new ErrorMessage(ErrorType.SERVICE_UNAVAILABLE.getMessage()));
+                return;
+            }
+        }
+        context.status(HttpStatus.INTERNAL_SERVER_ERROR_500).json(new ErrorMessage(String.format("Internal Server Error: %s", throwable.getLocalizedMessage())));
+    }
+
 }
@@ -2,11 +2,16 @@ package net.johanbasson.datavault;
 
 import io.javalin.Javalin;
 import net.johanbasson.fp.api.system.ApplicationContext;
-import net.johanbasson.fp.api.system.errors.ErrorMessage;
+import net.johanbasson.fp.api.system.commandbus.CoalescingMiddleware;
+import net.johanbasson.fp.api.system.commandbus.CommandRejectedException;
+import net.johanbasson.fp.api.system.queue.ConnectionHealth;
 import net.johanbasson.fp.api.users.AuthenticateUserCommand;
 import net.johanbasson.fp.api.users.Users;
 import org.eclipse.jetty.http.HttpStatus;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -41,12 +46,31 @@ public class Server {
                                     }
                             ),
                             throwable -> {
-                                context.status(HttpStatus.INTERNAL_SERVER_ERROR_500).json(new ErrorMessage(String.format("Internal Server Error: %s", throwable.getLocalizedMessage())));
+                                ContextUtil.failure(context, throwable);
                                 return null;
                             }
                     );
         });
 
+        application.exception(CommandRejectedException.class, (exception, context) -> ContextUtil.failure(context, exception));
+
+        application.get("/metrics/commands", context ->
+                context.status(HttpStatus.OK_200).json(applicationContext.getCommandMetrics().snapshot()));
+
+        application.get("/metrics/coalescing", context -> {
+            CoalescingMiddleware coalescing = applicationContext.getCommandCoalescing();
+            Map<String, Long> counters = new LinkedHashMap<>();
+            counters.put("executed", coalescing.executedCount());
+            counters.put("coalesced", coalescing.coalescedCount());
+            context.status(HttpStatus.OK_200).json(counters);
+        });
+
+        application.get("/health/queue", context -> {
+            List<ConnectionHealth> health = applicationContext.getQueueHealth();
+            boolean healthy = health.stream().allMatch(ConnectionHealth::isOpen);
+            context.status(healthy ? HttpStatus.OK_200 : HttpStatus.SERVICE_UNAVAILABLE_503).json(health);
+        });
+
     }
 
     public void start() {